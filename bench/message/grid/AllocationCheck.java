@@ -0,0 +1,68 @@
+package message.grid;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that a steady-state generation allocates nothing per child. Bytes
+ * allocated by every thread are measured over a number of generations for two
+ * population sizes; what a generation allocates regardless of size (stats,
+ * random streams, stream pipelines) cancels out, leaving the cost per child.
+ * Exits with status 1 if that is more than LIMIT bytes.
+ *
+ * Needs no JMH:
+ *     ant check-allocation
+ *
+ * @author kg249
+ */
+public class AllocationCheck {
+
+	private static final int SMALL = 100, LARGE = 400;
+	private static final int WARMUP = 30, GENERATIONS = 20;
+	/** Bytes per child allowed, well under one genome of the smallest grid. */
+	private static final double LIMIT = 8;
+
+	public static void main(String[] args) {
+		boolean ok = true;
+		for(String options : new String[] {"", "cache", "batch", "refine"}) {
+			double small = bytesPerGeneration(options, SMALL);
+			double large = bytesPerGeneration(options, LARGE);
+			double perChild = (large-small) / (LARGE-SMALL);
+			boolean pass = perChild<=LIMIT;
+			ok &= pass;
+			System.out.printf("%-8s %10.0f B/generation at %d, %10.0f at %d, %6.1f B/child %s%n",
+					options.isEmpty() ? "plain" : options, small, SMALL, large, LARGE, perChild, pass ? "ok" : "FAIL");
+		}
+		if(!ok)
+			System.exit(1);
+	}
+
+	private static double bytesPerGeneration(String options, int individuals) {
+		ForkJoinPool pool = new ForkJoinPool(1);
+		MessageFamily[] families = Fixtures.families();
+		Evolution evolution = new Evolution(families, 54, 22, 4, individuals, 5, 42, pool);
+		if(options.equals("cache"))
+			evolution.setFitnessCache(new FitnessCache(families, 1<<10)); //full by the end of warm up
+		if(options.equals("batch"))
+			evolution.setBatchEvaluator(new BatchEvaluator(families, 54, 22));
+		if(options.equals("refine"))
+			evolution.setLocalSearch(new LocalSearch(families, 200, 2.0));
+		for(int g=0; g<WARMUP; g++)
+			evolution.step();
+		long before = allocated();
+		for(int g=0; g<GENERATIONS; g++)
+			evolution.step();
+		long bytes = allocated() - before;
+		pool.shutdown();
+		return (double)bytes / GENERATIONS;
+	}
+
+	private static long allocated() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for(long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+			total += Math.max(0, bytes);
+		return total;
+	}
+
+}
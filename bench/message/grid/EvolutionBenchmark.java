@@ -0,0 +1,104 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Breeding: crossover, selection and a full generation step.
+ *
+ * @author kg249
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvolutionBenchmark {
+
+	@Param({"54x22", "216x88"})
+	public String size;
+
+	@Param({"100", "1000"})
+	public int individuals;
+
+	@Param({"15"})
+	public int species;
+
+	private Evolution evolution;
+	private Pattern[] population;
+	private SplittableRandom random;
+	private Selection.Sampler roulette, alias, tournament, rank;
+	private Crossover block;
+
+	@Setup
+	public void setup() {
+		int[] wh = Fixtures.size(size);
+		evolution = new Evolution(Fixtures.families(), wh[0], wh[1], species, individuals, 5, 42);
+		population = evolution.getSpecies()[0].getIndividuals();
+		random = new SplittableRandom(42);
+		roulette = new RouletteSelection().prepare(population);
+		alias = new AliasSelection().prepare(population);
+		tournament = new TournamentSelection(3).prepare(population);
+		rank = new RankSelection(1.5).prepare(population);
+		block = new BlockCrossover(false);
+	}
+
+	@Benchmark
+	public Pattern crossover() {
+		return new Pattern(population[0], population[1], random);
+	}
+
+	@Benchmark
+	public Pattern blockCrossover() {
+		return block.cross(population[0], population[1], random);
+	}
+
+	@Benchmark
+	public Pattern roulette() {
+		return roulette.select(random);
+	}
+
+	@Benchmark
+	public Pattern alias() {
+		return alias.select(random);
+	}
+
+	@Benchmark
+	public Pattern tournament() {
+		return tournament.select(random);
+	}
+
+	@Benchmark
+	public Pattern rank() {
+		return rank.select(random);
+	}
+
+	@Benchmark
+	public Selection.Sampler prepareRoulette() {
+		return new RouletteSelection().prepare(population);
+	}
+
+	@Benchmark
+	public Selection.Sampler prepareAlias() {
+		return new AliasSelection().prepare(population);
+	}
+
+	@Benchmark
+	public int generation() {
+		evolution.step();
+		return evolution.getBest().getError();
+	}
+
+}
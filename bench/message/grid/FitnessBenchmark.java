@@ -0,0 +1,99 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Error evaluation: a single message, a single family and a whole pattern.
+ * Each family is scored both as the problem builds it and with every
+ * combination as a separate message. Patterns are drawn in turn from a fixed,
+ * seeded pool.
+ *
+ * @author kg249
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FitnessBenchmark {
+
+	private static final int POOL = 64;
+
+	@Param({"54x22", "216x88"})
+	public String size;
+
+	@Param({"fatherCourage", "huellaHumana", "hymn", "roseGarden"})
+	public String family;
+
+	private Message message;
+	private MessageFamily messageFamily;
+	private MessageFamily sweepFamily;
+	private MessageFamily[] families;
+	private BatchEvaluator batch;
+	private Pattern[] patterns;
+	private int next;
+
+	@Setup
+	public void setup() {
+		int[] wh = Fixtures.size(size);
+		Problem problem = Fixtures.problem();
+		int f = Fixtures.indexOf(problem, family);
+		families = problem.getFamilies();
+		sweepFamily = families[f];
+		messageFamily = problem.getCombinations(f);
+		batch = new BatchEvaluator(families, wh[0], wh[1]);
+		SplittableRandom random = new SplittableRandom(42);
+		patterns = new Pattern[POOL];
+		for(int i=0; i<POOL; i++)
+			patterns[i] = new Pattern(wh[0], wh[1], random);
+		message = messageFamily.getBestMessage(patterns[0]);
+	}
+
+	private Pattern nextPattern() {
+		next = (next+1) & (POOL-1);
+		return patterns[next];
+	}
+
+	@Benchmark
+	public int messageError() {
+		return message.getError(nextPattern());
+	}
+
+	@Benchmark
+	public int familyMinimumError() {
+		return messageFamily.getMinimumError(nextPattern());
+	}
+
+	@Benchmark
+	public int sweepMinimumError() {
+		return sweepFamily.getMinimumError(nextPattern());
+	}
+
+	@Benchmark
+	public int patternError() {
+		Pattern p = nextPattern();
+		p.computeError(families);
+		return p.getError();
+	}
+
+	/** A whole pool, to compare with 64 calls of patternError. */
+	@Benchmark
+	public int batchError() {
+		batch.computeErrors(patterns, 0, POOL);
+		return patterns[0].getError();
+	}
+
+}
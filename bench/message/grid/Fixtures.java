@@ -0,0 +1,52 @@
+package message.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The bundled problem, loaded through Problem exactly as MessageGrid loads it
+ * so that benchmarks score the same families production does and results are
+ * comparable across machines. Benchmarks must be run from the project
+ * directory.
+ *
+ * @author kg249
+ */
+public class Fixtures {
+
+	public static final File PROBLEM = new File("messagegrid.problem");
+
+	public static Problem problem() {
+		try {
+			return Problem.load(PROBLEM);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	public static MessageFamily[] families() {
+		return problem().getFamilies();
+	}
+
+	/**
+	 * @param family a family's display name without spaces, any case, e.g.
+	 * fatherCourage
+	 * @return its index in the problem
+	 */
+	public static int indexOf(Problem problem, String family) {
+		String[] names = problem.getNames();
+		for(int f=0; f<names.length; f++)
+			if(names[f].replace(" ", "").equalsIgnoreCase(family))
+				return f;
+		throw new IllegalArgumentException("Unknown family "+family);
+	}
+
+	/**
+	 * @param size pattern size as WIDTHxHEIGHT, e.g. 54x22
+	 */
+	public static int[] size(String size) {
+		String[] parts = size.split("x");
+		return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+	}
+
+}
@@ -0,0 +1,4 @@
+package message.grid.jmh_generated;
+public class EvolutionBenchmark_jmhType extends EvolutionBenchmark_jmhType_B3 {
+}
+
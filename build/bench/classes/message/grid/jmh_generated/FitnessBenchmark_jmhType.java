@@ -0,0 +1,4 @@
+package message.grid.jmh_generated;
+public class FitnessBenchmark_jmhType extends FitnessBenchmark_jmhType_B3 {
+}
+
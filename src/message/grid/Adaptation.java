@@ -0,0 +1,80 @@
+package message.grid;
+
+/**
+ * How each species' mutation rate changes over a run, and when a stagnant
+ * species is restarted.
+ *
+ * An adaptive rate follows the 1/5th success rule: it shrinks after a
+ * generation that improves the species' best and grows after one that doesn't,
+ * balanced so that it settles where one generation in five improves. A species
+ * that stagnates for too long keeps only its best individual, with the rest
+ * replaced by random patterns and its rate reset.
+ *
+ * All of this depends only on the species' own history, so runs remain
+ * reproducible.
+ *
+ * @author kg249
+ */
+public class Adaptation {
+
+	private static final double GROW = 1.05;
+	private static final double SHRINK = 1.0/(GROW*GROW*GROW*GROW);
+	private static final double MIN = 0.001;
+	private static final double MAX = 0.25;
+
+	private final double rate;
+	private final boolean adaptive;
+	private final int restart;
+
+	/**
+	 * @param rate the starting mutation rate, per pixel
+	 * @param adaptive whether each species adapts its rate
+	 * @param restart generations without improvement after which a species is
+	 * restarted, 0 for never
+	 */
+	public Adaptation(double rate, boolean adaptive, int restart) {
+		if(!(rate>0 && rate<1))
+			throw new IllegalArgumentException("Mutation rate must be between 0 and 1, got "+rate);
+		this.rate = rate;
+		this.adaptive = adaptive;
+		this.restart = restart;
+	}
+
+	/**
+	 * @return the fixed default rate, never restarting
+	 */
+	public static Adaptation none() {
+		return new Adaptation(Pattern.MUTATION, false, 0);
+	}
+
+	/**
+	 * @return the mutation rate for the species' next generation
+	 */
+	double getRate(Species s) {
+		return adaptive && s.getMutation()>0 ? s.getMutation() : rate;
+	}
+
+	/**
+	 * Updates the species after a generation, given its best error before it.
+	 * @return whether the species should now be restarted
+	 */
+	boolean update(Species s, int previousBest, int best) {
+		double current = getRate(s);
+		if(best<previousBest) {
+			s.setStagnation(0);
+			if(adaptive)
+				s.setMutation(Math.max(MIN, current*SHRINK));
+			return false;
+		}
+		s.setStagnation(s.getStagnation()+1);
+		if(adaptive)
+			s.setMutation(Math.min(MAX, current*GROW));
+		if(restart>0 && s.getStagnation()>=restart) {
+			s.setStagnation(0);
+			s.setMutation(0);
+			return true;
+		}
+		return false;
+	}
+
+}
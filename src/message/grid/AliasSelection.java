@@ -0,0 +1,78 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fitness proportionate selection using Vose's alias method. Building the
+ * table is O(n), after which each draw is O(1).
+ *
+ * @author kg249
+ */
+public class AliasSelection implements Selection {
+
+	@Override
+	public Sampler prepare(Pattern[] patterns) {
+		return prepare(patterns, null);
+	}
+
+	@Override
+	public Sampler prepare(Pattern[] patterns, Sampler previous) {
+		int n = patterns.length;
+		Table t = previous instanceof Table && ((Table)previous).probability.length==n
+				? (Table)previous : new Table(n);
+		double[] probability = t.probability, scaled = t.scaled;
+		int[] alias = t.alias, small = t.small, large = t.large;
+		double sum = 0.0;
+		for(Pattern p : patterns)
+			sum += p.getFitness();
+		int smallCount = 0, largeCount = 0;
+		for(int i=0; i<n; i++) {
+			scaled[i] = patterns[i].getFitness() * n / sum;
+			if(scaled[i]<1.0)
+				small[smallCount++] = i;
+			else
+				large[largeCount++] = i;
+		}
+		while(smallCount>0 && largeCount>0) {
+			int s = small[--smallCount], l = large[--largeCount];
+			probability[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = scaled[l] + scaled[s] - 1.0;
+			if(scaled[l]<1.0)
+				small[smallCount++] = l;
+			else
+				large[largeCount++] = l;
+		}
+		//Anything left over is 1 up to rounding
+		while(largeCount>0)
+			probability[large[--largeCount]] = 1.0;
+		while(smallCount>0)
+			probability[small[--smallCount]] = 1.0;
+		t.patterns = patterns;
+		return t;
+	}
+
+	private static final class Table implements Sampler {
+
+		private final double[] probability;
+		private final int[] alias;
+		private final double[] scaled; //work space for building the table
+		private final int[] small, large;
+		private Pattern[] patterns;
+
+		Table(int n) {
+			probability = new double[n];
+			alias = new int[n];
+			scaled = new double[n];
+			small = new int[n];
+			large = new int[n];
+		}
+
+		@Override
+		public Pattern select(SplittableRandom random) {
+			int i = random.nextInt(patterns.length);
+			return patterns[random.nextDouble()<probability[i] ? i : alias[i]];
+		}
+	}
+
+}
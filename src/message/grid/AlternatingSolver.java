@@ -0,0 +1,255 @@
+package message.grid;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * An alternative to the GA which alternates two exact steps. With one message
+ * chosen from each group, the best pattern is found pixel by pixel: each
+ * defined pixel takes whichever colour costs less over the chosen messages, 1
+ * per message wanting black if it is white, 2 per message wanting white if it
+ * is black. With the pattern fixed, the best message of each group is simply
+ * the one with the least error. Neither step makes the error worse, and a
+ * choice only changes if it is strictly better, so alternating reaches a fixed
+ * point, usually within a handful of rounds.
+ *
+ * As fixed points are local optima, many starts are tried. Optionally, the
+ * best is then improved on by a branch-and-bound search over every combination
+ * of messages, bounded by the cost of the messages chosen so far, which can
+ * only grow as more are added.
+ *
+ * Connectivity penalties are not optimised for, only applied to the result.
+ *
+ * @author kg249
+ */
+public class AlternatingSolver {
+
+	private final MessageFamily[] families;
+	private final int width;
+	private final int height;
+	private final MessageMask[][] masks; //per group, per message, for the groups of every family
+	private final int[][][] black; //per group, per message, pixels that must be black
+	private final int[][][] white; //per group, per message, pixels that must be white
+	private long nodeLimit;
+	private boolean optimal;
+
+	public AlternatingSolver(MessageFamily[] families, int width, int height) {
+		this.families = families;
+		this.width = width;
+		this.height = height;
+		masks = Arrays.stream(families)
+				.flatMap(f -> Arrays.stream(f.getGroups(width, height)))
+				.toArray(MessageMask[][]::new);
+		black = new int[masks.length][][];
+		white = new int[masks.length][][];
+		for(int g=0; g<masks.length; g++) {
+			black[g] = new int[masks[g].length][];
+			white[g] = new int[masks[g].length][];
+			for(int m=0; m<masks[g].length; m++) {
+				black[g][m] = masks[g][m].pixels(false);
+				white[g][m] = masks[g][m].pixels(true);
+			}
+		}
+	}
+
+	/**
+	 * @param nodes combinations of messages, partial or complete, the
+	 * branch-and-bound search may visit. 0, the default, skips the search.
+	 */
+	public void setNodeLimit(long nodes) {
+		nodeLimit = nodes;
+	}
+
+	/**
+	 * @return whether the last search finished within its node limit, so no
+	 * pattern has a smaller error, ignoring connectivity penalties
+	 */
+	public boolean isOptimal() { return optimal; }
+
+	/**
+	 * Solves from each of the seeds, then from random starts, in parallel,
+	 * followed by the branch-and-bound search if enabled.
+	 * @return the best pattern found, the first of any ties
+	 */
+	public Pattern solve(Pattern[] seeds, int starts, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[starts];
+		for(int i=0; i<starts; i++)
+			randoms[i] = random.split();
+		Pattern best = IntStream.range(0, seeds.length+starts).parallel()
+				.mapToObj(i -> i<seeds.length ? solve(seeds[i]) : solve(randoms[i-seeds.length]))
+				.min(Comparator.naturalOrder())
+				.orElseThrow(() -> new IllegalArgumentException("No starts"));
+		optimal = false;
+		if(nodeLimit>0)
+			best = search(best);
+		return best;
+	}
+
+	/**
+	 * Alternates from the given pattern, starting with its best messages.
+	 */
+	public Pattern solve(Pattern start) {
+		long[] words = start.words().clone();
+		int[] choice = new int[masks.length];
+		choose(words, choice);
+		return alternate(words, choice);
+	}
+
+	/**
+	 * Alternates from a random pattern and random messages.
+	 */
+	Pattern solve(SplittableRandom random) {
+		long[] words = new Pattern(width, height, random).words();
+		int[] choice = new int[masks.length];
+		for(int g=0; g<masks.length; g++)
+			choice[g] = random.nextInt(masks[g].length);
+		return alternate(words, choice);
+	}
+
+	private Pattern alternate(long[] words, int[] choice) {
+		int[] votes = new int[width*height];
+		do {
+			vote(words, choice, votes);
+		} while(choose(words, choice));
+		return toPattern(words);
+	}
+
+	/**
+	 * Sets each pixel the chosen messages define to its cheaper colour. Ties
+	 * keep the current colour.
+	 * @param votes all zero, and left so
+	 */
+	private void vote(long[] words, int[] choice, int[] votes) {
+		for(int g=0; g<masks.length; g++) {
+			for(int i : black[g][choice[g]]) votes[i] += 1;
+			for(int i : white[g][choice[g]]) votes[i] -= 2;
+		}
+		for(int g=0; g<masks.length; g++) {
+			set(words, black[g][choice[g]], votes);
+			set(words, white[g][choice[g]], votes);
+		}
+	}
+
+	private static void set(long[] words, int[] pixels, int[] votes) {
+		for(int i : pixels) {
+			if(votes[i]<0)
+				words[i>>>6] |= 1L<<i;
+			else if(votes[i]>0)
+				words[i>>>6] &= ~(1L<<i);
+			votes[i] = 0;
+		}
+	}
+
+	/**
+	 * Changes each group's choice to its best message, if strictly better.
+	 * @return whether any choice changed
+	 */
+	private boolean choose(long[] words, int[] choice) {
+		boolean changed = false;
+		for(int g=0; g<masks.length; g++) {
+			int minError = masks[g][choice[g]].getError(words);
+			for(int m=0; m<masks[g].length; m++) {
+				int err = masks[g][m].getError(words, minError);
+				if(err<minError) {
+					minError = err;
+					choice[g] = m;
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	private Pattern toPattern(long[] words) {
+		Pattern p = new Pattern(width, height, words, 0);
+		p.computeError(families);
+		return p;
+	}
+
+	/**
+	 * Branch-and-bound over every combination of messages, visiting the
+	 * messages of each group in order of their error against the incumbent.
+	 * @return a better pattern than incumbent, or incumbent if none was found
+	 */
+	private Pattern search(Pattern incumbent) {
+		long[] words = incumbent.words();
+		Search s = new Search();
+		s.order = IntStream.range(0, masks.length).boxed()
+				.sorted(Comparator.comparingInt(g -> -masks[g].length))
+				.mapToInt(Integer::intValue).toArray();
+		s.messages = new int[masks.length][];
+		s.bestCost = 0;
+		for(int g=0; g<masks.length; g++) {
+			int[] errors = new int[masks[g].length];
+			for(int m=0; m<errors.length; m++)
+				errors[m] = masks[g][m].getError(words);
+			s.messages[g] = IntStream.range(0, errors.length).boxed()
+					.sorted(Comparator.comparingInt(m -> errors[m]))
+					.mapToInt(Integer::intValue).toArray();
+			s.bestChoice[g] = s.messages[g][0];
+			s.bestCost += errors[s.messages[g][0]];
+		}
+		int incumbentCost = s.bestCost;
+		s.branch(0);
+		optimal = s.nodes<=nodeLimit;
+		if(s.bestCost>=incumbentCost)
+			return incumbent;
+		long[] best = words.clone();
+		int[] choice = s.bestChoice;
+		int[] votes = new int[width*height];
+		vote(best, choice, votes);
+		Pattern p = toPattern(best);
+		return p.compareTo(incumbent)<0 ? p : incumbent;
+	}
+
+	/**
+	 * The state of a branch-and-bound search. Holds, for the messages chosen so
+	 * far, what each pixel would cost white and black, and so the cost of the
+	 * best pattern for them.
+	 */
+	private final class Search {
+
+		private final int[] whiteCost = new int[width*height];
+		private final int[] blackCost = new int[width*height];
+		private final int[] choice = new int[masks.length];
+		private final int[] bestChoice = new int[masks.length];
+		private int[] order; //groups in the order they are chosen
+		private int[][] messages; //per group, messages in the order tried
+		private int cost;
+		private int bestCost;
+		private long nodes;
+
+		void branch(int depth) {
+			if(++nodes>nodeLimit) return;
+			if(depth==order.length) {
+				bestCost = cost;
+				System.arraycopy(choice, 0, bestChoice, 0, choice.length);
+				return;
+			}
+			int g = order[depth];
+			for(int m : messages[g]) {
+				add(black[g][m], 1, whiteCost);
+				add(white[g][m], 2, blackCost);
+				if(cost<bestCost) {
+					choice[g] = m;
+					branch(depth+1);
+				}
+				add(black[g][m], -1, whiteCost);
+				add(white[g][m], -2, blackCost);
+				if(nodes>nodeLimit) return;
+			}
+		}
+
+		private void add(int[] pixels, int amount, int[] costs) {
+			for(int i : pixels) {
+				int before = Math.min(whiteCost[i], blackCost[i]);
+				costs[i] += amount;
+				cost += Math.min(whiteCost[i], blackCost[i]) - before;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,243 @@
+package message.grid;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Scores patterns 64 at a time using bit-slicing. A block of patterns is
+ * transposed so that each pixel becomes one long, bit j holding pattern j's
+ * colour. A mask's error is then counted for all 64 patterns at once in a
+ * vertical counter, one long per bit of the count, by adding in the slice of
+ * every pixel the mask defines. The minimum within each group and the sum
+ * over groups are likewise done on the counters, so per-pattern errors are
+ * only extracted once per block.
+ *
+ * Gives exactly the same errors as {@link Pattern#computeError}, which is
+ * used for any patterns left over after whole blocks, and for families with a
+ * connectivity penalty.
+ *
+ * @author kg249
+ */
+public class BatchEvaluator {
+
+	private static final int LANES = 64;
+	/** Blocks with fewer patterns than this are scored one by one. */
+	private static final int MIN_LANES = 16;
+
+	private final MessageFamily[] families;
+	private final int width;
+	private final int height;
+	private final int[][][] black; //per group, per mask, pixels that must be black
+	private final int[][][] white; //per group, per mask, pixels that must be white
+	private final int[] groupPlanes; //bits needed for any error in each group
+	private final int planes; //bits needed for the total error
+	private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+	public BatchEvaluator(MessageFamily[] families, int width, int height) {
+		this.families = families;
+		this.width = width;
+		this.height = height;
+		int groups = 0;
+		for(MessageFamily f : families)
+			groups += f.getGroups(width, height).length;
+		black = new int[groups][][];
+		white = new int[groups][][];
+		groupPlanes = new int[groups];
+		long maxTotal = 0;
+		int g = 0;
+		for(MessageFamily f : families)
+			for(MessageMask[] group : f.getGroups(width, height)) {
+				black[g] = new int[group.length][];
+				white[g] = new int[group.length][];
+				int maxError = 0;
+				for(int m=0; m<group.length; m++) {
+					black[g][m] = group[m].pixels(false);
+					white[g][m] = group[m].pixels(true);
+					maxError = Math.max(maxError, black[g][m].length + 2*white[g][m].length);
+				}
+				groupPlanes[g] = bits(maxError);
+				maxTotal += maxError;
+				g++;
+			}
+		planes = bits(maxTotal);
+	}
+
+	private static int bits(long max) {
+		return Math.max(1, 64 - Long.numberOfLeadingZeros(max));
+	}
+
+	/**
+	 * @return whether the families can be scored in batches, i.e. none has a
+	 * connectivity penalty
+	 */
+	public boolean isApplicable() {
+		for(MessageFamily f : families)
+			if(f.getConnectivityPenalty()>0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Computes the error of patterns[from..to), in parallel by block.
+	 */
+	public void computeErrors(Pattern[] patterns, int from, int to) {
+		if(!isApplicable()) {
+			IntStream.range(from, to).parallel().forEach(i -> patterns[i].computeError(families));
+			return;
+		}
+		int blocks = (to-from+LANES-1)/LANES;
+		IntStream.range(0, blocks).parallel().forEach(b -> {
+			int start = from + b*LANES;
+			int end = Math.min(to, start+LANES);
+			if(end-start<MIN_LANES) {
+				for(int i=start; i<end; i++)
+					patterns[i].computeError(families);
+			} else {
+				computeBlock(patterns, start, end);
+			}
+		});
+	}
+
+	private void computeBlock(Pattern[] patterns, int from, int to) {
+		int lanes = to-from;
+		long valid = lanes==LANES ? -1L : (1L<<lanes)-1;
+		int words = MessageMask.words(width, height);
+		Workspace w = workspaces.get();
+		if(w.slices==null) {
+			w.slices = new long[words*LANES];
+			w.inverse = new long[words*LANES];
+			w.total = new long[planes];
+			w.min = new long[planes];
+			w.err = new long[planes];
+		}
+		long[] slices = w.slices, inverse = w.inverse; //inverse: black pixels, in valid lanes
+		long[] total = w.total, min = w.min, err = w.err;
+		for(int word=0; word<words; word++) {
+			int base = word*LANES;
+			for(int j=0; j<LANES; j++)
+				slices[base+j] = j<lanes ? patterns[from+j].words()[word] : 0;
+			transpose(slices, base);
+		}
+		for(int i=0; i<slices.length; i++)
+			inverse[i] = ~slices[i] & valid;
+		Arrays.fill(total, 0);
+		for(int g=0; g<black.length; g++) {
+			int p = groupPlanes[g];
+			for(int m=0; m<black[g].length; m++) {
+				long[] acc = m==0 ? min : err;
+				for(int k=0; k<p; k++)
+					acc[k] = 0;
+				count(acc, slices, black[g][m], 0);
+				count(acc, inverse, white[g][m], 1);
+				if(m>0)
+					min(min, err, p);
+			}
+			sum(total, min, p);
+		}
+
+		for(int j=0; j<lanes; j++) {
+			int error = 0;
+			for(int k=0; k<planes; k++)
+				error |= (int)((total[k]>>>j) & 1) << k;
+			patterns[from+j].setError(error);
+		}
+	}
+
+	/**
+	 * Each thread's buffers, kept between blocks so that scoring doesn't
+	 * allocate.
+	 */
+	private static final class Workspace {
+		long[] slices, inverse;
+		long[] total, min, err;
+	}
+
+	/**
+	 * Adds slices[p] for each of the pixels, weighted by 2^level,
+	 * to each lane of the vertical counter. Pixels are summed eight at a time
+	 * by a Harley-Seal tree of carry-save adders, which has no branches, and
+	 * only the eights are rippled into the counter.
+	 */
+	private static void count(long[] acc, long[] slices, int[] pixels, int level) {
+		long ones = 0, twos = 0, fours = 0;
+		int n = pixels.length, i = 0;
+		for(; i+8<=n; i+=8) {
+			long a, b, u, twosA, twosB, foursA, foursB;
+			a = slices[pixels[i]];
+			b = slices[pixels[i+1]];
+			u = a^b; twosA = (a&b) | (u&ones); ones ^= u;
+			a = slices[pixels[i+2]];
+			b = slices[pixels[i+3]];
+			u = a^b; twosB = (a&b) | (u&ones); ones ^= u;
+			u = twosA^twosB; foursA = (twosA&twosB) | (u&twos); twos ^= u;
+			a = slices[pixels[i+4]];
+			b = slices[pixels[i+5]];
+			u = a^b; twosA = (a&b) | (u&ones); ones ^= u;
+			a = slices[pixels[i+6]];
+			b = slices[pixels[i+7]];
+			u = a^b; twosB = (a&b) | (u&ones); ones ^= u;
+			u = twosA^twosB; foursB = (twosA&twosB) | (u&twos); twos ^= u;
+			u = foursA^foursB;
+			add(acc, (foursA&foursB) | (u&fours), level+3);
+			fours ^= u;
+		}
+		for(; i<n; i++)
+			add(acc, slices[pixels[i]], level);
+		add(acc, ones, level);
+		add(acc, twos, level+1);
+		add(acc, fours, level+2);
+	}
+
+	/**
+	 * Adds bits, weighted by 2^level, to each lane of the vertical counter.
+	 */
+	private static void add(long[] acc, long bits, int level) {
+		for(int k=level; bits!=0; k++) {
+			long carry = acc[k] & bits;
+			acc[k] ^= bits;
+			bits = carry;
+		}
+	}
+
+	/**
+	 * Sets each lane of a to the smaller of it and b, comparing the lowest
+	 * planes bits.
+	 */
+	private static void min(long[] a, long[] b, int planes) {
+		long less = 0, equal = -1L; //lanes where b<a so far, where they are equal so far
+		for(int k=planes-1; k>=0; k--) {
+			less |= equal & a[k] & ~b[k];
+			equal &= ~(a[k]^b[k]);
+		}
+		for(int k=0; k<planes; k++)
+			a[k] = (a[k] & ~less) | (b[k] & less);
+	}
+
+	/**
+	 * Adds the lowest planes bits of b to each lane of total.
+	 */
+	private static void sum(long[] total, long[] b, int planes) {
+		long carry = 0;
+		for(int k=0; k<total.length && (k<planes || carry!=0); k++) {
+			long x = total[k], y = k<planes ? b[k] : 0;
+			total[k] = x ^ y ^ carry;
+			carry = (x & y) | (carry & (x^y));
+		}
+	}
+
+	/**
+	 * Transposes the 64x64 bit matrix a[base..base+64) in place, so that bit j
+	 * of a[base+i] moves to bit i of a[base+j].
+	 */
+	static void transpose(long[] a, int base) {
+		long m = 0x00000000FFFFFFFFL;
+		for(int j=32; j!=0; j>>>=1, m ^= m<<j) {
+			for(int k=0; k<64; k=((k|j)+1) & ~j) {
+				long t = ((a[base+k]>>>j) ^ a[base+(k|j)]) & m;
+				a[base+k] ^= t<<j;
+				a[base+(k|j)] ^= t;
+			}
+		}
+	}
+
+}
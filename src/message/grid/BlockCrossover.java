@@ -0,0 +1,35 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Takes a random rectangle from one parent and the rest from the other, so
+ * that neighbouring pixels tend to be inherited together. With rows set, the
+ * rectangle always spans the full width, making it a two-point crossover over
+ * whole rows.
+ *
+ * @author kg249
+ */
+public class BlockCrossover implements Crossover {
+
+	private final boolean rows;
+
+	public BlockCrossover(boolean rows) {
+		this.rows = rows;
+	}
+
+	@Override
+	public void cross(Pattern a, Pattern b, SplittableRandom random, Pattern child) {
+		int width = a.getWidth(), height = a.getHeight();
+		child.set(b);
+		int y0 = random.nextInt(height), y1 = random.nextInt(y0, height) + 1;
+		if(rows) {
+			child.copyRange(a, y0*width, y1*width);
+		} else {
+			int x0 = random.nextInt(width), x1 = random.nextInt(x0, width) + 1;
+			for(int y=y0; y<y1; y++)
+				child.copyRange(a, y*width + x0, y*width + x1);
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+package message.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A snapshot of a run: the generation number and every species' seed,
+ * generation, adapted mutation rate and individuals. As each generation's
+ * random stream is derived from the species seed, that is all the random state
+ * there is. Migrants in transit between islands are not saved.
+ *
+ * The file format, all big-endian, is:
+ * <pre>
+ * int    MAGIC, VERSION
+ * int    generation, width, height, species, individuals
+ * per species, in island order:
+ *   long   seed
+ *   int    generation
+ *   double mutation, 0 if never adapted
+ *   int    stagnation, generations since the best improved
+ *   per individual, best first:
+ *     int  error
+ *     long genome[(width*height+63)/64], as Pattern.words()
+ * </pre>
+ *
+ * @author kg249
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x4D474350; //MGCP
+	private static final int VERSION = 1;
+	private static final int HEADER = 7*Integer.BYTES;
+	private static final int SPECIES_HEADER = Long.BYTES + Integer.BYTES + Double.BYTES + Integer.BYTES;
+
+	private final int generation;
+	private final int width;
+	private final int height;
+	private final Species[] species;
+
+	/**
+	 * Takes a snapshot of the evolution. The species it publishes are
+	 * overwritten each generation, so their patterns are copied.
+	 */
+	public Checkpoint(Evolution evolution) {
+		generation = evolution.getGeneration();
+		Species[] current = evolution.getIslands();
+		species = new Species[current.length];
+		for(int s=0; s<species.length; s++) {
+			Species c = current[s];
+			Pattern[] individuals = c.getIndividuals().clone();
+			for(int i=0; i<individuals.length; i++)
+				individuals[i] = new Pattern(individuals[i]);
+			species[s] = new Species(c.getSeed(), individuals, c.getGeneration(), c.getMutation(), c.getStagnation());
+		}
+		width = species[0].getBest().getWidth();
+		height = species[0].getBest().getHeight();
+	}
+
+	private Checkpoint(int generation, int width, int height, Species[] species) {
+		this.generation = generation;
+		this.width = width;
+		this.height = height;
+		this.species = species;
+	}
+
+	public int getGeneration() { return generation; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getIndividuals() { return species[0].getIndividuals().length; }
+	public Species[] getSpecies() { return species; }
+
+	/**
+	 * Writes to a temporary file which then replaces file, so a crash while
+	 * writing leaves the previous checkpoint intact.
+	 */
+	public void write(File file) throws IOException {
+		int words = MessageMask.words(width, height);
+		int individuals = getIndividuals();
+		ByteBuffer buf = ByteBuffer.allocate(HEADER + species.length*(SPECIES_HEADER + individuals*(Integer.BYTES + words*Long.BYTES)));
+		buf.putInt(MAGIC).putInt(VERSION);
+		buf.putInt(generation).putInt(width).putInt(height).putInt(species.length).putInt(individuals);
+		for(Species s : species) {
+			buf.putLong(s.getSeed());
+			buf.putInt(s.getGeneration());
+			buf.putDouble(s.getMutation());
+			buf.putInt(s.getStagnation());
+			for(Pattern p : s.getIndividuals()) {
+				buf.putInt(p.getError());
+				for(long w : p.words())
+					buf.putLong(w);
+			}
+		}
+		buf.flip();
+
+		File tmp = new File(file.getPath()+".tmp");
+		try(FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buf.hasRemaining())
+				out.write(buf);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @throws IOException if the file can't be read or isn't a checkpoint
+	 */
+	public static Checkpoint read(File file) throws IOException {
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if(buf.remaining()<HEADER || buf.getInt()!=MAGIC)
+				throw new IOException(file+" is not a checkpoint");
+			int version = buf.getInt();
+			if(version!=VERSION)
+				throw new IOException(file+" is checkpoint version "+version+", expected "+VERSION);
+			int generation = buf.getInt(), width = buf.getInt(), height = buf.getInt();
+			int speciesCount = buf.getInt(), individuals = buf.getInt();
+			int words = MessageMask.words(width, height);
+			if(buf.remaining() != (long)speciesCount*(SPECIES_HEADER + individuals*(Integer.BYTES + (long)words*Long.BYTES)))
+				throw new IOException(file+" is truncated");
+
+			Species[] species = new Species[speciesCount];
+			for(int s=0; s<speciesCount; s++) {
+				long seed = buf.getLong();
+				int speciesGeneration = buf.getInt();
+				double mutation = buf.getDouble();
+				int stagnation = buf.getInt();
+				Pattern[] patterns = new Pattern[individuals];
+				for(int i=0; i<individuals; i++) {
+					int error = buf.getInt();
+					long[] genome = new long[words];
+					LongBuffer lb = buf.asLongBuffer();
+					lb.get(genome);
+					buf.position(buf.position() + words*Long.BYTES);
+					patterns[i] = new Pattern(width, height, genome, error);
+				}
+				species[s] = new Species(seed, patterns, speciesGeneration, mutation, stagnation);
+			}
+			return new Checkpoint(generation, width, height, species);
+		}
+	}
+
+}
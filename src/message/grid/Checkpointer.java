@@ -0,0 +1,66 @@
+package message.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes a checkpoint at most every interval. The snapshot is taken on the
+ * compute thread, which is cheap, and written on a background thread. If the
+ * previous write hasn't finished the generation is skipped rather than queued.
+ *
+ * @author kg249
+ */
+public class Checkpointer implements EvolutionListener {
+
+	private final File file;
+	private final long interval; //ns
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Checkpoint writer");
+		t.setDaemon(true);
+		return t;
+	});
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private long lastWrite;
+
+	public Checkpointer(File file, double seconds) {
+		this.file = file;
+		interval = (long)(seconds*1e9);
+		lastWrite = System.nanoTime();
+	}
+
+	@Override
+	public void generationComplete(Evolution evolution) {
+		long now = System.nanoTime();
+		if(now-lastWrite >= interval && writing.compareAndSet(false, true)) {
+			lastWrite = now;
+			Checkpoint checkpoint = new Checkpoint(evolution);
+			writer.execute(() -> write(checkpoint));
+		}
+	}
+
+	private void write(Checkpoint checkpoint) {
+		try {
+			checkpoint.write(file);
+		} catch (IOException ex) {
+			System.err.println("Failed to write checkpoint: "+ex);
+		} finally {
+			writing.set(false);
+		}
+	}
+
+	/**
+	 * Writes a final checkpoint of the evolution and waits for all writes to
+	 * finish.
+	 */
+	public void close(Evolution evolution) throws InterruptedException {
+		Checkpoint checkpoint = new Checkpoint(evolution);
+		writer.execute(() -> write(checkpoint));
+		writer.shutdown();
+		writer.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+}
@@ -0,0 +1,189 @@
+package message.grid;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Which solid cells of a cut-out are connected to its frame, i.e. would stay
+ * attached when the transparent cells are cut away. A solid cell on the edge of
+ * the grid is part of the frame, and solid cells connect to their four
+ * neighbours.
+ *
+ * Making a cell solid only ever connects more cells, so is handled by flooding
+ * out from that cell. Making a connected cell transparent may cut off any
+ * number of others, so the connected set is then rebuilt from the edges.
+ * Either way, the area that changed is kept so a view can redraw just that.
+ *
+ * @author kg249
+ */
+public class Connectivity {
+
+	private final int width;
+	private final int height;
+	private final boolean[] solid;
+	private final boolean[] connected;
+	private final boolean[] previous; //connected before a rebuild
+	private final int[] queue;
+	private int unconnected;
+	private int minX, minY, maxX, maxY; //cells changed by the last edit
+
+	/**
+	 * @param solid per cell, row-major. Copied.
+	 */
+	public Connectivity(int width, int height, boolean[] solid) {
+		if(solid.length!=width*height)
+			throw new IllegalArgumentException("Expected "+width*height+" cells");
+		this.width = width;
+		this.height = height;
+		this.solid = solid.clone();
+		connected = new boolean[solid.length];
+		previous = new boolean[solid.length];
+		queue = new int[solid.length];
+		recompute();
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	public boolean isSolid(int x, int y) { return solid[y*width + x]; }
+
+	public boolean isConnected(int x, int y) { return connected[y*width + x]; }
+
+	/**
+	 * @return the number of solid cells not connected to the frame
+	 */
+	public int getUnconnected() { return unconnected; }
+
+	public boolean isFullyConnected() { return unconnected==0; }
+
+	/**
+	 * @return the bounds of the cells whose solidity or connection changed in
+	 * the last call to setSolid, in cells
+	 */
+	public Rectangle getChanged() {
+		return new Rectangle(minX, minY, maxX-minX+1, maxY-minY+1);
+	}
+
+	public void setSolid(int x, int y, boolean isSolid) {
+		int i = y*width + x;
+		minX = maxX = x;
+		minY = maxY = y;
+		if(solid[i]==isSolid) return;
+		solid[i] = isSolid;
+		if(isSolid) {
+			unconnected++;
+			if(isEdge(x, y) || connected(x-1, y) || connected(x+1, y) || connected(x, y-1) || connected(x, y+1)) {
+				int reached = flood(i);
+				unconnected -= reached;
+				for(int k=0; k<reached; k++)
+					changed(queue[k]);
+			}
+		} else if(connected[i]) {
+			System.arraycopy(connected, 0, previous, 0, connected.length);
+			recompute();
+			for(int j=0; j<connected.length; j++)
+				if(connected[j]!=previous[j])
+					changed(j);
+		} else {
+			unconnected--;
+		}
+	}
+
+	private void changed(int i) {
+		int x = i % width, y = i / width;
+		minX = Math.min(minX, x);
+		maxX = Math.max(maxX, x);
+		minY = Math.min(minY, y);
+		maxY = Math.max(maxY, y);
+	}
+
+	private boolean isEdge(int x, int y) {
+		return x==0 || y==0 || x==width-1 || y==height-1;
+	}
+
+	private boolean connected(int x, int y) {
+		return x>=0 && y>=0 && x<width && y<height && connected[y*width + x];
+	}
+
+	private void recompute() {
+		Arrays.fill(connected, false);
+		int total = 0, reached = 0;
+		for(boolean s : solid)
+			if(s) total++;
+		for(int x=0; x<width; x++) {
+			reached += seed(x);
+			reached += seed((height-1)*width + x);
+		}
+		for(int y=1; y<height-1; y++) {
+			reached += seed(y*width);
+			reached += seed(y*width + width-1);
+		}
+		unconnected = total - reached;
+	}
+
+	private int seed(int i) {
+		return solid[i] && !connected[i] ? flood(i) : 0;
+	}
+
+	/**
+	 * Marks start, which must be solid, and every solid cell reachable from it
+	 * through unmarked solid cells as connected.
+	 * @return the number of cells marked, which are left at the start of queue
+	 */
+	private int flood(int start) {
+		int head = 0, tail = 0;
+		connected[start] = true;
+		queue[tail++] = start;
+		while(head<tail) {
+			int i = queue[head++];
+			int x = i % width;
+			if(x>0 && solid[i-1] && !connected[i-1]) { connected[i-1] = true; queue[tail++] = i-1; }
+			if(x<width-1 && solid[i+1] && !connected[i+1]) { connected[i+1] = true; queue[tail++] = i+1; }
+			if(i>=width && solid[i-width] && !connected[i-width]) { connected[i-width] = true; queue[tail++] = i-width; }
+			if(i+width<solid.length && solid[i+width] && !connected[i+width]) { connected[i+width] = true; queue[tail++] = i+width; }
+		}
+		return tail;
+	}
+
+	/**
+	 * Counts the solid cells not connected to the frame in one pass, for
+	 * scoring patterns rather than editing.
+	 * @param solid one bit per cell, packed as {@link Pattern#words()}
+	 */
+	public static int countUnconnected(long[] solid, int width, int height) {
+		int size = width*height;
+		long[] reached = new long[solid.length];
+		int[] queue = new int[size];
+		int tail = 0, total = 0;
+		for(long w : solid)
+			total += Long.bitCount(w);
+		if(total==0) return 0;
+		for(int x=0; x<width; x++) {
+			tail = push(solid, reached, queue, tail, x);
+			tail = push(solid, reached, queue, tail, (height-1)*width + x);
+		}
+		for(int y=1; y<height-1; y++) {
+			tail = push(solid, reached, queue, tail, y*width);
+			tail = push(solid, reached, queue, tail, y*width + width-1);
+		}
+		for(int head=0; head<tail; head++) {
+			int i = queue[head];
+			int x = i % width;
+			if(x>0) tail = push(solid, reached, queue, tail, i-1);
+			if(x<width-1) tail = push(solid, reached, queue, tail, i+1);
+			if(i>=width) tail = push(solid, reached, queue, tail, i-width);
+			if(i+width<size) tail = push(solid, reached, queue, tail, i+width);
+		}
+		return total - tail;
+	}
+
+	private static int push(long[] solid, long[] reached, int[] queue, int tail, int i) {
+		long bit = 1L<<i;
+		if((solid[i>>>6] & ~reached[i>>>6] & bit)!=0) {
+			reached[i>>>6] |= bit;
+			queue[tail++] = i;
+		}
+		return tail;
+	}
+
+}
@@ -0,0 +1,24 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Combines two parents into an unmutated child.
+ *
+ * @author kg249
+ */
+public interface Crossover {
+
+	/**
+	 * Writes the child into child, which must be neither parent, leaving its
+	 * error unset.
+	 */
+	void cross(Pattern a, Pattern b, SplittableRandom random, Pattern child);
+
+	default Pattern cross(Pattern a, Pattern b, SplittableRandom random) {
+		Pattern child = new Pattern(a.getWidth(), a.getHeight());
+		cross(a, b, random, child);
+		return child;
+	}
+
+}
@@ -3,12 +3,10 @@ package message.grid;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.util.Arrays;
-import java.util.Random;
 import javax.swing.JComponent;
 
 /**
@@ -31,25 +29,43 @@ public class EditorPane extends JComponent {
 	private static final Color TRANSPARENT = Color.WHITE;
 	private static final Color CONNECTED = Color.BLACK;
 	private static final Color UNCONNECTED = Color.BLUE;
+	
+	//java.util.Random's generator, and the same advanced 21 steps at once
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L<<48)-1;
+	private static final long JUMP_MULTIPLIER, JUMP_ADDEND;
+	static {
+		long m = 1, a = 0;
+		for(int i=0; i<21; i++) {
+			m = m*MULTIPLIER & MASK;
+			a = (a*MULTIPLIER + ADDEND) & MASK;
+		}
+		JUMP_MULTIPLIER = m;
+		JUMP_ADDEND = a;
+	}
 
 	private final Pattern pattern;
 	private final Message message;
-	private final boolean[] transparent;
-	private final boolean[] edgeConnected;
+	private final Connectivity cut;
 	private final int rightOffset;
+	private final BufferedImage left; //one pixel per cell
+	private final BufferedImage right;
 	
 	public EditorPane(Pattern pattern, Message message) {
 		this.pattern = pattern;
 		this.message = message;
 		setPreferredSize(new Dimension(pattern.getWidth()*SCALE*2+GAP, pattern.getHeight()*SCALE));
-		transparent = new boolean[pattern.getWidth()*pattern.getHeight()];
-		edgeConnected = new boolean[pattern.getWidth()*pattern.getHeight()];
-		
+		boolean[] solid = new boolean[pattern.getWidth()*pattern.getHeight()];
 		for(int x=0; x<pattern.getWidth(); x++)
 			for(int y=0; y<pattern.getHeight(); y++)
-				transparent[y*pattern.getWidth() + x]=message.matches(x, y, pattern.isWhite(x, y));
+				solid[y*pattern.getWidth() + x] = !message.matches(x, y, pattern.isWhite(x, y));
+		cut = new Connectivity(pattern.getWidth(), pattern.getHeight(), solid);
 		
 		rightOffset = pattern.getWidth()*SCALE+GAP;
+		left = new BufferedImage(pattern.getWidth(), pattern.getHeight(), BufferedImage.TYPE_INT_RGB);
+		right = new BufferedImage(pattern.getWidth(), pattern.getHeight(), BufferedImage.TYPE_INT_RGB);
+		render(new Rectangle(0, 0, pattern.getWidth(), pattern.getHeight()));
 		
 		addMouseListener(new MouseAdapter() {
 			@Override
@@ -63,104 +79,97 @@ public class EditorPane extends JComponent {
 				if(x<0 || x>=pattern.getWidth()) return;
 				if(y<0 || y>=pattern.getHeight()) return;
 				if(!message.matches(x, y, pattern.isWhite(x, y))) return;
-				transparent[y*pattern.getWidth() + x] = !transparent[y*pattern.getWidth() + x];
-				recomputeEdgeConnected();
-				repaint();
+				cut.setSolid(x, y, !cut.isSolid(x, y));
+				Rectangle changed = cut.getChanged();
+				render(changed);
+				repaint(changed.x*SCALE, changed.y*SCALE, changed.width*SCALE, changed.height*SCALE);
+				repaint(rightOffset + changed.x*SCALE, changed.y*SCALE, changed.width*SCALE, changed.height*SCALE);
 			}
 		});
-		recomputeEdgeConnected();
-	}
-	
-	private void recomputeEdgeConnected() {
-		Arrays.fill(edgeConnected, false);
-		for(int x=0; x<pattern.getWidth(); x++) {
-			edgeConnected[x] = !transparent[x];
-			edgeConnected[x+(pattern.getHeight()-1)*pattern.getWidth()] = !transparent[x+(pattern.getHeight()-1)*pattern.getWidth()];
-		}
-		for(int y=0; y<pattern.getHeight(); y++) {
-			edgeConnected[y*pattern.getWidth()] = !transparent[y*pattern.getWidth()];
-			edgeConnected[pattern.getWidth()-1+y*pattern.getWidth()] = !transparent[pattern.getWidth()-1+y*pattern.getWidth()];
-		}
-		boolean changed;
-		do {
-			changed = false;
-			for(int x=1; x<pattern.getWidth(); x++)
-				for(int y=1; y<pattern.getHeight(); y++)
-					if(!transparent[y*pattern.getWidth() + x] && !edgeConnected[y*pattern.getWidth() + x]) {
-						if(
-								(edgeConnected[y*pattern.getWidth() + x-1]) ||
-								(edgeConnected[(y-1)*pattern.getWidth() + x]) ||
-								(edgeConnected[y*pattern.getWidth() + x+1]) ||
-								(edgeConnected[(y+1)*pattern.getWidth() + x])) {
-							edgeConnected[y*pattern.getWidth() + x] = true;
-							changed = true;
-						}
-					}
-		} while(changed);
 	}
 	
 	public boolean whiteMessagePixel(int x, int y) {
 		if(message.matches(x, y, true)) {
 			if(message.matches(x, y, false)) { //matches() always returns true for transparent pixels
+				//The 21st nextBoolean() of new Random(seed), without the Random
 				long seed = (x<<8)|y|((x*31L)<<16)^((y*27)<<4);
-				Random r = new Random(seed);
-				for(int i=0; i<20; i++) r.nextBoolean();
-				return r.nextBoolean();
+				seed = (seed ^ MULTIPLIER) & MASK;
+				return ((seed*JUMP_MULTIPLIER + JUMP_ADDEND) & MASK) >>> 47 != 0;
 			}
 			return true;
 		}
 		return false;
 	}
 
-	@Override
-	protected void paintComponent(Graphics g) {
-		Graphics2D g2 = (Graphics2D)g.create();
-		
-		//Left side of editor - what the message + pattern would look like
-		for(int x=0; x<pattern.getWidth(); x++)
-			for(int y=0; y<pattern.getHeight(); y++) {
-				if(transparent[y*pattern.getWidth() + x])
-					g2.setColor(pattern.isWhite(x, y)?TRANSPARENT_WHITE:TRANSPARENT_BLACK);
+	/**
+	 * Redraws the given cells of both backing images.
+	 */
+	private void render(Rectangle cells) {
+		for(int y=cells.y; y<cells.y+cells.height; y++)
+			for(int x=cells.x; x<cells.x+cells.width; x++) {
+				//Left side of editor - what the message + pattern would look like
+				if(!cut.isSolid(x, y))
+					left.setRGB(x, y, (pattern.isWhite(x, y)?TRANSPARENT_WHITE:TRANSPARENT_BLACK).getRGB());
 				else
-					g2.setColor(whiteMessagePixel(x, y)?OPAQUE_WHITE:OPAQUE_BLACK);
-				g2.fillRect(x*SCALE, y*SCALE, SCALE, SCALE);
-		}
-		
-		//Right side of editor - the final shape of the message, highlighting unconnected pieces
-		for(int x=0; x<pattern.getWidth(); x++)
-			for(int y=0; y<pattern.getHeight(); y++) {
-				if(transparent[y*pattern.getWidth() + x])
-					g2.setColor(TRANSPARENT);
+					left.setRGB(x, y, (whiteMessagePixel(x, y)?OPAQUE_WHITE:OPAQUE_BLACK).getRGB());
+				//Right side of editor - the final shape of the message, highlighting unconnected pieces
+				if(!cut.isSolid(x, y))
+					right.setRGB(x, y, TRANSPARENT.getRGB());
 				else
-					g2.setColor(edgeConnected[x+y*pattern.getWidth()]?CONNECTED:UNCONNECTED);
-				g2.fillRect(rightOffset + x*SCALE, y*SCALE, SCALE, SCALE);
-		}
+					right.setRGB(x, y, (cut.isConnected(x, y)?CONNECTED:UNCONNECTED).getRGB());
+			}
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		//Scaling is nearest neighbour by default, and only the clip is drawn
+		g.drawImage(left, 0, 0, left.getWidth()*SCALE, left.getHeight()*SCALE, null);
+		g.drawImage(right, rightOffset, 0, right.getWidth()*SCALE, right.getHeight()*SCALE, null);
+	}
+	
+	/**
+	 * @return per cell, row-major, whether it is engraved: solid and black
+	 */
+	public boolean[] getEngraveCells() {
+		boolean[] cells = new boolean[pattern.getWidth()*pattern.getHeight()];
+		for(int y=0; y<pattern.getHeight(); y++)
+			for(int x=0; x<pattern.getWidth(); x++)
+				cells[y*pattern.getWidth() + x] = cut.isSolid(x, y) && message.matches(x, y, false);
+		return cells;
+	}
+	
+	/**
+	 * @return per cell, row-major, whether it is cut out: transparent
+	 */
+	public boolean[] getCutCells() {
+		boolean[] cells = new boolean[pattern.getWidth()*pattern.getHeight()];
+		for(int y=0; y<pattern.getHeight(); y++)
+			for(int x=0; x<pattern.getWidth(); x++)
+				cells[y*pattern.getWidth() + x] = !cut.isSolid(x, y);
+		return cells;
 	}
 	
 	public BufferedImage getEngraveImage() {
-		BufferedImage img = new BufferedImage(pattern.getWidth(), pattern.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		for(int x=0; x<pattern.getWidth(); x++)
-			for(int y=0; y<pattern.getHeight(); y++) {
-				img.setRGB(x, y, (!transparent[y*pattern.getWidth() + x]) && message.matches(x, y, false) ? 0xFF000000 : 0xFFFFFFFF);
-			}
+		BufferedImage img = ImageExport.create(pattern.getWidth(), pattern.getHeight());
+		int[] pixels = ImageExport.pixels(img);
+		boolean[] cells = getEngraveCells();
+		for(int i=0; i<cells.length; i++)
+			pixels[i] = cells[i] ? 0xFF000000 : 0xFFFFFFFF;
 		return img;
 	}
 	
 	public BufferedImage getCutImage() {
-		BufferedImage img = new BufferedImage(pattern.getWidth(), pattern.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		for(int x=0; x<pattern.getWidth(); x++)
-			for(int y=0; y<pattern.getHeight(); y++) {
-				if(transparent[y*pattern.getWidth() + x])
-					img.setRGB(x, y, (transparent[y*pattern.getWidth() + x]) ? 0xFF000000 : 0xFFFFFFFF);
-			}
+		BufferedImage img = ImageExport.create(pattern.getWidth(), pattern.getHeight());
+		int[] pixels = ImageExport.pixels(img);
+		boolean[] cells = getCutCells();
+		for(int i=0; i<cells.length; i++)
+			if(cells[i])
+				pixels[i] = 0xFF000000;
 		return img;
 	}
 	
 	public boolean isFullyConnected() {
-		for(int i=0; i<transparent.length; i++)
-			if(!transparent[i] && !edgeConnected[i])
-				return false;
-		return true;
+		return cut.isFullyConnected();
 	}
 	
 	
@@ -0,0 +1,255 @@
+package message.grid;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Where the error of each species' best individual comes from: per family, how
+ * much each pixel adds to the error against the family's best messages. A
+ * pixel costs 2 for each chosen message wanting it white while it is black, and
+ * 1 for each wanting it black while it is white, so a family's map sums to its
+ * error, less any connectivity penalty.
+ *
+ * Kept up to date as each best changes: only the pixels that differ from the
+ * previous best are flipped, through an ErrorState, and a group's pixels are
+ * only rescanned if its best message changes. A best that differs in most
+ * pixels, such as after a restart, is cheaper to start again from.
+ *
+ * Maps can be read while a run is going, from any thread, and are written as
+ * PNG heatmaps and CSV grids of the raw errors.
+ *
+ * @author kg249
+ */
+public class ErrorMap implements EvolutionListener {
+
+	private final String[] names;
+	private final int families;
+	private final int width;
+	private final int height;
+	private final int[][][] black; //per group, per message, pixels that must be black
+	private final int[][][] white; //per group, per message, pixels that must be white
+	private volatile Island[] islands;
+
+	public ErrorMap(String[] names, MessageFamily[] families, int width, int height) {
+		this.names = names;
+		this.families = families.length;
+		this.width = width;
+		this.height = height;
+		ErrorState template = new ErrorState(new Pattern(width, height, new long[MessageMask.words(width, height)], 0), families);
+		black = new int[template.getGroupCount()][][];
+		white = new int[template.getGroupCount()][][];
+		for(int g=0; g<black.length; g++) {
+			int messages = template.getMessageCount(g);
+			black[g] = new int[messages][];
+			white[g] = new int[messages][];
+			for(int m=0; m<messages; m++) {
+				black[g][m] = template.getMask(g, m).pixels(false);
+				white[g][m] = template.getMask(g, m).pixels(true);
+			}
+		}
+	}
+
+	/**
+	 * One species' best and its maps.
+	 */
+	private final class Island {
+		final ErrorState state;
+		final Pattern next; //the best being taken in
+		final int[] choice; //per group, its best message
+		final int[][] errors; //per family, per pixel
+		int generation = -1;
+
+		Island(MessageFamily[] families, Pattern best) {
+			state = new ErrorState(best, families);
+			next = new Pattern(best);
+			choice = new int[black.length];
+			errors = new int[ErrorMap.this.families][width*height];
+			rebuild();
+		}
+
+		void rebuild() {
+			for(int[] e : errors)
+				Arrays.fill(e, 0);
+			for(int g=0; g<choice.length; g++) {
+				choice[g] = state.getBest(g);
+				add(g, choice[g], 1);
+			}
+		}
+
+		/**
+		 * Adds a message's error at each of its pixels to its family's map.
+		 */
+		void add(int group, int message, int sign) {
+			int[] e = errors[state.getFamily(group)];
+			for(int i : black[group][message])
+				if(state.isWhite(i)) e[i] += sign;
+			for(int i : white[group][message])
+				if(!state.isWhite(i)) e[i] += 2*sign;
+		}
+
+		/**
+		 * Moves to the pattern in next.
+		 */
+		void update() {
+			long[] from = state.words(), to = next.words();
+			int changed = 0;
+			for(int w=0; w<from.length; w++)
+				changed += Long.bitCount(from[w]^to[w]);
+			if(changed==0)
+				return;
+			if(2*changed>width*height) {
+				state.reset(next);
+				rebuild();
+				return;
+			}
+			for(int w=0; w<from.length; w++) {
+				long diff = from[w]^to[w];
+				while(diff!=0) {
+					int i = (w<<6) + Long.numberOfTrailingZeros(diff);
+					diff &= diff-1;
+					boolean isWhite = state.isWhite(i);
+					for(int g=0; g<choice.length; g++) {
+						MessageMask mask = state.getMask(g, choice[g]);
+						errors[state.getFamily(g)][i] += mask.getError(i, !isWhite) - mask.getError(i, isWhite);
+					}
+					state.flip(i);
+				}
+			}
+			for(int g=0; g<choice.length; g++) {
+				int best = state.getBest(g);
+				if(best!=choice[g]) {
+					add(g, choice[g], -1);
+					add(g, best, 1);
+					choice[g] = best;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void generationComplete(Evolution evolution) {
+		Species[] species = evolution.getIslands();
+		if(islands==null) {
+			Island[] created = new Island[species.length];
+			for(int s=0; s<species.length; s++)
+				created[s] = new Island(evolution.getFamilies(), species[s].getBest());
+			islands = created;
+		}
+		for(int s=0; s<species.length; s++) {
+			Island island = islands[s];
+			synchronized(island) {
+				//A copy published by the evolution, so consistent with its generation
+				island.next.set(species[s].getBest());
+				island.generation = species[s].getGeneration();
+				island.update();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of species mapped, 0 before the first generation
+	 */
+	public int getSpeciesCount() {
+		Island[] i = islands;
+		return i==null ? 0 : i.length;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	/**
+	 * @param species index among the islands, as Evolution.getIslands
+	 * @return the generation of the best last mapped
+	 */
+	public int getGeneration(int species) {
+		Island island = islands[species];
+		synchronized(island) {
+			return island.generation;
+		}
+	}
+
+	/**
+	 * @param species index among the islands, as Evolution.getIslands
+	 * @return per pixel, row-major, its error against the family's best
+	 * messages. A copy.
+	 */
+	public int[] getErrors(int species, int family) {
+		Island island = islands[species];
+		synchronized(island) {
+			return island.errors[family].clone();
+		}
+	}
+
+	/**
+	 * @param species index among the islands, as Evolution.getIslands
+	 * @return per pixel, row-major, its error summed over every family
+	 */
+	public int[] getErrors(int species) {
+		Island island = islands[species];
+		int[] total = new int[width*height];
+		synchronized(island) {
+			for(int[] e : island.errors)
+				for(int i=0; i<total.length; i++)
+					total[i] += e[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @return a heatmap of errors, black for none through red and yellow to
+	 * white for the largest
+	 */
+	public BufferedImage toImage(int[] errors) {
+		BufferedImage img = ImageExport.create(width, height);
+		int[] pixels = ImageExport.pixels(img);
+		int max = Math.max(1, Arrays.stream(errors).max().orElse(0));
+		for(int i=0; i<errors.length; i++) {
+			int t = errors[i]*765/max; //0 to 3*255
+			int r = Math.min(t, 255), g = Math.min(Math.max(t-255, 0), 255), b = Math.max(t-510, 0);
+			pixels[i] = 0xFF000000 | r<<16 | g<<8 | b;
+		}
+		return img;
+	}
+
+	/**
+	 * Writes, for each species s, heatS.png and heatS.csv of its total error,
+	 * and heatS-family.png and heatS-family.csv for each family. CSVs hold one
+	 * line of comma separated errors per row of pixels.
+	 * @param scale whole-pixel upscaling of the images
+	 */
+	public void write(File dir, int scale) throws IOException {
+		ImageExport images = new ImageExport(dir, scale);
+		dir.mkdirs();
+		for(int s=0; s<getSpeciesCount(); s++) {
+			int[] total = getErrors(s);
+			images.add("heat"+s+".png", toImage(total));
+			writeCsv(new File(dir, "heat"+s+".csv"), total);
+			for(int f=0; f<families; f++) {
+				int[] errors = getErrors(s, f);
+				String name = "heat"+s+"-"+MessageGrid.camelCase(names[f]);
+				images.add(name+".png", toImage(errors));
+				writeCsv(new File(dir, name+".csv"), errors);
+			}
+		}
+		images.write();
+	}
+
+	private void writeCsv(File file, int[] errors) throws IOException {
+		try(Writer out = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8))) {
+			for(int y=0; y<height; y++) {
+				for(int x=0; x<width; x++) {
+					if(x>0) out.write(',');
+					out.write(Integer.toString(errors[y*width + x]));
+				}
+				out.write('\n');
+			}
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package message.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pattern together with its error against every message of every family.
+ * Flipping a single pixel changes each message's error by at most 2, so the
+ * state can be kept up to date in O(#messages) per flip instead of rescanning
+ * the whole pattern.
+ *
+ * The state works on its own copy of the pattern, and can be reset to another
+ * of the same size without allocating.
+ *
+ * @author kg249
+ */
+public class ErrorState {
+
+	private final Pattern pattern;
+	private final MessageMask[][] masks; //per group, per message, for the groups of every family
+	private final int[] familyOf; //per group
+	private final int[][] errors; //per group, per message
+	private final int[] minimums; //per group
+	private final int[] familyErrors;
+	private int error;
+
+	public ErrorState(Pattern pattern, MessageFamily[] families) {
+		this.pattern = new Pattern(pattern);
+		List<MessageMask[]> groups = new ArrayList<>();
+		List<Integer> owners = new ArrayList<>();
+		for(int f=0; f<families.length; f++)
+			for(MessageMask[] group : families[f].getGroups(pattern.getWidth(), pattern.getHeight())) {
+				groups.add(group);
+				owners.add(f);
+			}
+		masks = groups.toArray(new MessageMask[0][]);
+		familyOf = owners.stream().mapToInt(Integer::intValue).toArray();
+		errors = new int[masks.length][];
+		minimums = new int[masks.length];
+		familyErrors = new int[families.length];
+		for(int g=0; g<masks.length; g++)
+			errors[g] = new int[masks[g].length];
+		reset(pattern);
+	}
+
+	/**
+	 * Starts again from a copy of pattern, which must be the same size.
+	 */
+	public void reset(Pattern pattern) {
+		this.pattern.set(pattern);
+		Arrays.fill(familyErrors, 0);
+		error = 0;
+		for(int g=0; g<masks.length; g++) {
+			int min = Integer.MAX_VALUE;
+			for(int m=0; m<masks[g].length; m++) {
+				errors[g][m] = masks[g][m].getError(pattern.words());
+				min = Math.min(min, errors[g][m]);
+			}
+			minimums[g] = min;
+			familyErrors[familyOf[g]] += min;
+			error += min;
+		}
+	}
+
+	public int getError() { return error; }
+
+	public int getMinimumError(int family) { return familyErrors[family]; }
+
+	public int getSize() { return pattern.getWidth()*pattern.getHeight(); }
+
+	boolean isWhite(int i) { return pattern.isWhite(i); }
+
+	/**
+	 * @return the current pattern's words. Must not be modified.
+	 */
+	long[] words() { return pattern.words(); }
+
+	int getGroupCount() { return masks.length; }
+
+	int getFamily(int group) { return familyOf[group]; }
+
+	int getMessageCount(int group) { return masks[group].length; }
+
+	MessageMask getMask(int group, int message) { return masks[group][message]; }
+
+	/**
+	 * @return the first message of the group with the smallest error, as
+	 * MessageFamily.getBestMessage picks
+	 */
+	int getBest(int group) {
+		int m = 0;
+		while(errors[group][m]!=minimums[group])
+			m++;
+		return m;
+	}
+
+	/**
+	 * @return the change in total error were pixel i flipped
+	 */
+	public int getDelta(int i) {
+		boolean white = pattern.isWhite(i);
+		int delta = 0;
+		for(int g=0; g<masks.length; g++) {
+			int min = Integer.MAX_VALUE;
+			for(int m=0; m<masks[g].length; m++) {
+				MessageMask mask = masks[g][m];
+				min = Math.min(min, errors[g][m] + mask.getError(i, !white) - mask.getError(i, white));
+			}
+			delta += min - minimums[g];
+		}
+		return delta;
+	}
+
+	/**
+	 * Flips pixel i, updating every message's error and each family's minimum.
+	 */
+	public void flip(int i) {
+		boolean white = pattern.isWhite(i);
+		pattern.flip(i);
+		for(int g=0; g<masks.length; g++) {
+			int min = Integer.MAX_VALUE;
+			for(int m=0; m<masks[g].length; m++) {
+				MessageMask mask = masks[g][m];
+				errors[g][m] += mask.getError(i, !white) - mask.getError(i, white);
+				min = Math.min(min, errors[g][m]);
+			}
+			familyErrors[familyOf[g]] += min - minimums[g];
+			error += min - minimums[g];
+			minimums[g] = min;
+		}
+	}
+
+	/**
+	 * @return a copy of the current pattern, with its error set
+	 */
+	public Pattern toPattern() {
+		Pattern p = new Pattern(pattern);
+		p.setError(error);
+		return p;
+	}
+
+	/**
+	 * Copies the current pattern into p, with its error set.
+	 */
+	void copyTo(Pattern p) {
+		p.set(pattern);
+		p.setError(error);
+	}
+
+}
@@ -0,0 +1,367 @@
+package message.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * The genetic algorithm. Species are evolved in parallel, and within a species
+ * the children are evaluated in parallel, all on the given fork-join pool.
+ *
+ * All randomness comes from the per-species streams, and children are bred in a
+ * fixed order before being evaluated, so a run is reproducible from its seed
+ * regardless of the number of threads.
+ *
+ * Species can also exchange individuals through a Migration, either at the end
+ * of each generation with step, or asynchronously with runIslands, where each
+ * species evolves as an island at its own pace. Only the former is
+ * reproducible.
+ *
+ * Once running, a generation allocates nothing per child: children are bred
+ * into the patterns of each species' spare population, elites are copied in,
+ * and sorting reuses a scratch array. Listeners are instead given copies of
+ * the species, taken as each generation is published, which stay as they are
+ * while islands evolve but are overwritten by the next.
+ *
+ * @author kg249
+ */
+public class Evolution {
+
+	private final MessageFamily[] families;
+	private final int width;
+	private final int height;
+	private final int individuals;
+	private final int elitist;
+	private final ForkJoinPool pool;
+	private final Species[] islands; //in a fixed order, for migration
+	private final Species[] published; //copies of the islands, for listeners
+	private Species[] species; //published, sorted by best individual
+	private Selection selection = new RouletteSelection();
+	private Crossover crossover = new UniformCrossover();
+	private LocalSearch localSearch;
+	private FitnessCache cache;
+	private BatchEvaluator batch;
+	private Migration migration;
+	private Adaptation adaptation = Adaptation.none();
+	private final List<EvolutionListener> listeners = new ArrayList<>();
+	private int generation;
+
+	public Evolution(MessageFamily[] families, int width, int height, int species, int individuals, int elitist, long seed, ForkJoinPool pool) {
+		this.families = families;
+		this.width = width;
+		this.height = height;
+		this.individuals = individuals;
+		this.elitist = elitist;
+		this.pool = pool;
+		this.generation = 0;
+
+		islands = new Species[species];
+		SplittableRandom seeds = new SplittableRandom(seed);
+		for(int s=0; s<species; s++)
+			islands[s] = new Species(seeds.nextLong(), new Pattern[individuals]);
+
+		pool.submit(() -> Arrays.stream(islands).parallel().forEach(this::initialise)).join();
+		published = Arrays.stream(islands).map(Species::copy).toArray(Species[]::new);
+		this.species = sorted();
+	}
+
+	/**
+	 * Resumes a run from a checkpoint. Continuing with the same settings gives
+	 * exactly the same result as the original run.
+	 */
+	public Evolution(MessageFamily[] families, Checkpoint checkpoint, int elitist, ForkJoinPool pool) {
+		this.families = families;
+		this.width = checkpoint.getWidth();
+		this.height = checkpoint.getHeight();
+		this.individuals = checkpoint.getIndividuals();
+		this.elitist = elitist;
+		this.pool = pool;
+		this.generation = checkpoint.getGeneration();
+		this.islands = Arrays.stream(checkpoint.getSpecies()).map(Species::copy).toArray(Species[]::new);
+		published = Arrays.stream(islands).map(Species::copy).toArray(Species[]::new);
+		this.species = sorted();
+	}
+
+	public Evolution(MessageFamily[] families, int width, int height, int species, int individuals, int elitist, long seed) {
+		this(families, width, height, species, individuals, elitist, seed, ForkJoinPool.commonPool());
+	}
+
+	public void setSelection(Selection selection) {
+		this.selection = selection;
+	}
+	
+	public void setCrossover(Crossover crossover) {
+		this.crossover = crossover;
+	}
+	
+	/**
+	 * @param localSearch used to refine the elite of each species every
+	 * generation, or null to not refine
+	 */
+	public void setLocalSearch(LocalSearch localSearch) {
+		this.localSearch = localSearch;
+	}
+	
+	/**
+	 * @param cache used to skip evaluating children already seen, or null to
+	 * always evaluate. Must be for the same families as this.
+	 */
+	public void setFitnessCache(FitnessCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * @param batch used to score children 64 at a time, or null to score them
+	 * one by one. Must be for the same families and size as this.
+	 */
+	public void setBatchEvaluator(BatchEvaluator batch) {
+		this.batch = batch;
+	}
+	
+	/**
+	 * @param migration how species exchange individuals, or null for never
+	 */
+	public void setMigration(Migration migration) {
+		this.migration = migration;
+	}
+	
+	/**
+	 * @param adaptation how mutation rates change, and when stagnant species
+	 * are restarted
+	 */
+	public void setAdaptation(Adaptation adaptation) {
+		this.adaptation = adaptation;
+	}
+	
+	public void addListener(EvolutionListener listener) {
+		listeners.add(listener);
+	}
+	
+	private void initialise(Species s) {
+		SplittableRandom random = s.getRandom(0);
+		Pattern[] patterns = s.getIndividuals();
+		long start = System.nanoTime();
+		for(int i=0; i<individuals; i++)
+			patterns[i] = new Pattern(width, height, random);
+		long bred = System.nanoTime();
+		evaluate(s, patterns, 0, null);
+		s.setStats(new GenerationStats(0, individuals, 0, bred-start, System.nanoTime()-bred, 0));
+	}
+
+	/**
+	 * Breeds and evaluates the next generation of every species.
+	 */
+	public void step() {
+		generation++;
+		pool.submit(() -> Arrays.stream(islands).parallel().forEach(this::evolve)).join();
+		if(migration!=null && migration.isDue(generation)) {
+			for(int i=0; i<islands.length; i++)
+				migration.emigrate(islands, i);
+			for(Species s : islands)
+				s.receive();
+		}
+		publish();
+	}
+	
+	/**
+	 * Evolves every species independently until each reaches the given
+	 * generation, with no barrier between generations. Migrants are sent as
+	 * soon as an island reaches a migration generation, and received whenever
+	 * the receiving island next starts a generation.
+	 * 
+	 * Listeners are notified on the calling thread each time the slowest island
+	 * completes a generation, by which point others may be further ahead.
+	 * 
+	 * Islands queue for the pool's threads one generation at a time, so none is
+	 * starved when there are fewer threads than islands.
+	 */
+	public void runIslands(int generations) {
+		runIslands(new Termination(generations+1, 0, -1, 0));
+	}
+	
+	/**
+	 * As runIslands(int), running until the termination says to stop. It is
+	 * checked each time listeners are notified, after which islands finish the
+	 * generation they are on.
+	 */
+	public void runIslands(Termination termination) {
+		int generations = termination.getLastGeneration();
+		AtomicBoolean stop = new AtomicBoolean();
+		Semaphore progress = new Semaphore(0);
+		Queue<Integer> ready = new ConcurrentLinkedQueue<>(); //islands not being evolved
+		for(int i=0; i<islands.length; i++)
+			if(islands[i].getGeneration() < generations)
+				ready.add(i);
+		ForkJoinTask<?> task = pool.submit(() -> IntStream.range(0, islands.length).parallel().forEach(r -> {
+			Integer i;
+			while(!stop.get() && (i = ready.poll())!=null) {
+				Species s = islands[i];
+				evolve(s);
+				if(migration!=null && migration.isDue(s.getGeneration()))
+					migration.emigrate(islands, i);
+				progress.release();
+				if(s.getGeneration() < generations)
+					ready.add(i);
+			}
+		}));
+		try {
+			while(generation < generations) {
+				if(!progress.tryAcquire(100, TimeUnit.MILLISECONDS) && task.isDone())
+					break; //failed, join will rethrow
+				progress.drainPermits();
+				int slowest = Integer.MAX_VALUE;
+				for(Species s : islands)
+					slowest = Math.min(slowest, s.getGeneration());
+				if(slowest>generation) {
+					generation = slowest;
+					publish();
+					if(termination.isDone(this)) {
+						stop.set(true);
+						break;
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			return;
+		}
+		task.join();
+		snapshot(); //as islands finish their last generations
+	}
+	
+	private void publish() {
+		snapshot();
+		for(EvolutionListener l : listeners)
+			l.generationComplete(this);
+	}
+	
+	/**
+	 * Copies each island into published, as it is now, and sorts the copies.
+	 */
+	private void snapshot() {
+		for(int i=0; i<islands.length; i++)
+			islands[i].copyTo(published[i]);
+		species = sorted();
+	}
+	
+	/**
+	 * @return the published species sorted by their best individual
+	 */
+	private Species[] sorted() {
+		Species[] sorted = published.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private void evolve(Species s) {
+		s.receive();
+		int g = s.getGeneration()+1;
+		SplittableRandom random = s.getRandom(g);
+		Pattern[] population = s.getIndividuals();
+		int[][] hints = hints(population[0]);
+		double rate = adaptation.getRate(s);
+		long time = System.nanoTime();
+		Selection.Sampler sampler = selection.prepare(population, s.getSampler());
+		s.setSampler(sampler);
+
+		Pattern[] nextGen = s.getSpare();
+		for(int i=0; i<elitist; i++)
+			nextGen[i].set(population[i]);
+		long selectTime = 0, crossoverTime = 0;
+		for(int i=elitist; i<individuals; i++) {
+			Pattern pA = sampler.select(random);
+			Pattern pB = sampler.select(random);
+			long selected = System.nanoTime();
+			crossover.cross(pA, pB, random, nextGen[i]);
+			nextGen[i].mutate(random, rate);
+			long crossed = System.nanoTime();
+			selectTime += selected-time;
+			crossoverTime += crossed-selected;
+			time = crossed;
+		}
+		evaluate(s, nextGen, elitist, hints);
+		long evaluated = System.nanoTime();
+		if(localSearch!=null) {
+			for(int i=0; i<elitist; i++)
+				localSearch.refine(nextGen[i], random);
+			s.sort(nextGen);
+		}
+		long refined = System.nanoTime();
+		int evaluations = individuals-elitist;
+		if(adaptation.update(s, population[0].getError(), nextGen[0].getError())) {
+			//Restart, keeping only the best
+			for(int i=1; i<individuals; i++)
+				nextGen[i].randomise(random);
+			evaluate(s, nextGen, 1, hints);
+			evaluations += individuals-1;
+		}
+		s.swap(nextGen, g, new GenerationStats(g, evaluations, selectTime, crossoverTime, evaluated-time, refined-evaluated));
+	}
+
+	/**
+	 * @return per family, hints from the best of a population for scoring its
+	 * children, which mostly share its best messages
+	 */
+	private int[][] hints(Pattern best) {
+		int[][] hints = new int[families.length][];
+		for(int f=0; f<families.length; f++)
+			hints[f] = families[f].getHints(best);
+		return hints;
+	}
+
+	/**
+	 * Computes the error of patterns[from..] in parallel, then sorts the whole
+	 * array best first.
+	 * @param hints per family, as for Pattern.computeError
+	 */
+	private void evaluate(Species s, Pattern[] patterns, int from, int[][] hints) {
+		FitnessCache c = cache;
+		if(batch!=null) {
+			Pattern[] todo = s.getScratch();
+			int n = 0;
+			for(int i=from; i<patterns.length; i++)
+				if(c==null || !c.lookup(patterns[i]))
+					todo[n++] = patterns[i];
+			batch.computeErrors(todo, 0, n);
+			if(c!=null)
+				for(int i=0; i<n; i++)
+					c.store(todo[i]);
+			s.sort(patterns);
+			return;
+		}
+		IntStream.range(from, patterns.length).parallel().forEach(i -> {
+			if(c==null)
+				patterns[i].computeError(families, hints);
+			else
+				c.computeError(patterns[i], hints);
+		});
+		s.sort(patterns);
+	}
+
+	public MessageFamily[] getFamilies() { return families; }
+	public int getGeneration() { return generation; }
+
+	/**
+	 * @return copies of the species as of the last generation, sorted by their
+	 * best individual. Overwritten when the next generation is published.
+	 */
+	public Species[] getSpecies() { return species; }
+	
+	/**
+	 * @return copies of the species as of the last generation, in a fixed order
+	 */
+	public Species[] getIslands() { return published; }
+
+	public Pattern getBest() { return species[0].getBest(); }
+
+}
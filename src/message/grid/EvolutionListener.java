@@ -0,0 +1,14 @@
+package message.grid;
+
+/**
+ * Notified by Evolution after each generation, on the thread running it.
+ * Listeners should return quickly, taking copies of anything they need to work
+ * on later.
+ *
+ * @author kg249
+ */
+public interface EvolutionListener {
+
+	void generationComplete(Evolution evolution);
+
+}
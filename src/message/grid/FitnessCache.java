@@ -0,0 +1,142 @@
+package message.grid;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of pattern errors against one set of families.
+ * Once a species converges many children are copies of existing individuals,
+ * and this saves re-evaluating them.
+ *
+ * Entries are keyed by a 64-bit hash of the genome and held in small sets of
+ * WAYS entries, with CLOCK eviction within each set. A hit also compares the
+ * full genome, so a hash collision is only ever a miss.
+ *
+ * @author kg249
+ */
+public class FitnessCache {
+
+	private static final int WAYS = 8;
+	private static final int LOCKS = 256;
+
+	private final MessageFamily[] families;
+	private final int setMask;
+	private final long[] hashes;
+	private final long[][] genomes;
+	private final int[] errors; //-1 where a slot is empty
+	private final boolean[] referenced;
+	private final int[] hands; //per set
+	private final Object[] locks = new Object[LOCKS];
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity maximum number of cached patterns, rounded up to a power
+	 * of two
+	 */
+	public FitnessCache(MessageFamily[] families, int capacity) {
+		this.families = families;
+		int sets = Integer.highestOneBit(Math.max(1, (capacity+WAYS-1)/WAYS - 1)) << 1;
+		setMask = sets-1;
+		hashes = new long[sets*WAYS];
+		genomes = new long[sets*WAYS][];
+		errors = new int[sets*WAYS];
+		referenced = new boolean[sets*WAYS];
+		hands = new int[sets];
+		Arrays.fill(errors, -1);
+		for(int i=0; i<LOCKS; i++)
+			locks[i] = new Object();
+	}
+
+	/**
+	 * Sets the error of the pattern, from the cache if possible, otherwise by
+	 * computing it and caching the result.
+	 * @param hints per family, as for Pattern.computeError
+	 */
+	public void computeError(Pattern pattern, int[][] hints) {
+		if(!lookup(pattern)) {
+			pattern.computeError(families, hints);
+			store(pattern);
+		}
+	}
+
+	/**
+	 * Sets the error of the pattern if it is cached.
+	 * @return whether it was
+	 */
+	boolean lookup(Pattern pattern) {
+		long[] words = pattern.words();
+		long hash = pattern.hash();
+		int set = (int)(hash>>>32) & setMask;
+		synchronized(locks[set & (LOCKS-1)]) {
+			int i = find(set, hash, words);
+			if(i>=0) {
+				referenced[i] = true;
+				hits.increment();
+				pattern.setError(errors[i]);
+				return true;
+			}
+		}
+		misses.increment();
+		return false;
+	}
+
+	/**
+	 * Caches the pattern's error, which must have been computed, unless
+	 * another thread missing on the same genome already has.
+	 */
+	void store(Pattern pattern) {
+		long[] words = pattern.words();
+		long hash = pattern.hash();
+		int set = (int)(hash>>>32) & setMask;
+		synchronized(locks[set & (LOCKS-1)]) {
+			if(find(set, hash, words)>=0)
+				return;
+			int i = victim(set);
+			if(genomes[i]==null || genomes[i].length!=words.length)
+				genomes[i] = new long[words.length];
+			System.arraycopy(words, 0, genomes[i], 0, words.length);
+			hashes[i] = hash;
+			errors[i] = pattern.getError();
+			referenced[i] = false;
+		}
+	}
+
+	/**
+	 * @return the slot of the set holding the genome, or -1. The set's lock
+	 * must be held.
+	 */
+	private int find(int set, long hash, long[] words) {
+		for(int i=set*WAYS; i<(set+1)*WAYS; i++)
+			if(errors[i]>=0 && hashes[i]==hash && Arrays.equals(genomes[i], words))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * CLOCK: sweeps the set from its hand, clearing reference bits, until an
+	 * empty or unreferenced slot is found.
+	 */
+	private int victim(int set) {
+		int base = set*WAYS;
+		while(true) {
+			int i = base + hands[set];
+			hands[set] = (hands[set]+1) % WAYS;
+			if(errors[i]<0 || !referenced[i])
+				return i;
+			referenced[i] = false;
+		}
+	}
+
+	public long getHits() { return hits.sum(); }
+	public long getMisses() { return misses.sum(); }
+
+	public double getHitRate() {
+		long h = getHits(), m = getMisses();
+		return h+m==0 ? 0.0 : (double)h/(h+m);
+	}
+
+	public int getCapacity() { return errors.length; }
+
+}
@@ -0,0 +1,75 @@
+package message.grid;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One species' generation, as recorded by Java Flight Recorder when a
+ * recording is running, e.g. with -XX:StartFlightRecording.
+ *
+ * @author kg249
+ */
+@Name("message.grid.Generation")
+@Label("Generation")
+@Category("Message Grid")
+@Description("One generation of one species")
+@StackTrace(false)
+class GenerationEvent extends Event {
+
+	@Label("Generation")
+	int generation;
+
+	@Label("Species")
+	@Description("Index of the species among the islands")
+	int species;
+
+	@Label("Evaluations")
+	int evaluations;
+
+	@Label("Evaluations per Second")
+	double evaluationRate;
+
+	@Label("Selection Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long selectTime;
+
+	@Label("Crossover Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long crossoverTime;
+
+	@Label("Evaluation Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long evaluateTime;
+
+	@Label("Refinement Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long refineTime;
+
+	@Label("UI Time")
+	@Description("Time spent rendering since the previous generation, shared by all species")
+	@Timespan(Timespan.NANOSECONDS)
+	long uiTime;
+
+	@Label("Best Error")
+	int bestError;
+
+	@Label("Mean Error")
+	double meanError;
+
+	@Label("Worst Error")
+	int worstError;
+
+	@Label("Diversity")
+	@Description("Mean Hamming distance between individuals")
+	double diversity;
+
+	@Label("Family Errors")
+	@Description("Minimum error of the best individual against each family")
+	String familyErrors;
+
+}
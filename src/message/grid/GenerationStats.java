@@ -0,0 +1,52 @@
+package message.grid;
+
+/**
+ * Where one species spent its time in one generation. Times are wall-clock
+ * nanoseconds; evaluation is itself parallel, so its time is that of the whole
+ * phase.
+ *
+ * @author kg249
+ */
+public final class GenerationStats {
+
+	private final int generation;
+	private final int evaluations;
+	private final long selectTime;
+	private final long crossoverTime;
+	private final long evaluateTime;
+	private final long refineTime;
+
+	GenerationStats(int generation, int evaluations, long selectTime, long crossoverTime, long evaluateTime, long refineTime) {
+		this.generation = generation;
+		this.evaluations = evaluations;
+		this.selectTime = selectTime;
+		this.crossoverTime = crossoverTime;
+		this.evaluateTime = evaluateTime;
+		this.refineTime = refineTime;
+	}
+
+	public int getGeneration() { return generation; }
+
+	/**
+	 * @return the number of patterns scored, including any found in the cache
+	 */
+	public int getEvaluations() { return evaluations; }
+
+	public long getSelectTime() { return selectTime; }
+
+	/** Includes mutation. */
+	public long getCrossoverTime() { return crossoverTime; }
+
+	public long getEvaluateTime() { return evaluateTime; }
+
+	/** Local search of the elite, 0 if disabled. */
+	public long getRefineTime() { return refineTime; }
+
+	/**
+	 * @return evaluations per second of the evaluation phase
+	 */
+	public double getEvaluationRate() {
+		return evaluateTime==0 ? 0.0 : evaluations*1e9/evaluateTime;
+	}
+
+}
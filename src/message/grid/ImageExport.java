@@ -0,0 +1,123 @@
+package message.grid;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+/**
+ * Builds and writes output images. Images are ARGB with their pixels accessed
+ * directly through the backing int array, and are upscaled by whole pixels in
+ * one pass. A batch of images is scaled, encoded and written in parallel.
+ *
+ * @author kg249
+ */
+public class ImageExport {
+
+	/** The default upscaling of exported and displayed images. */
+	public static final int SCALE = 4;
+
+	private final File dir;
+	private final int scale;
+	private final List<String> names = new ArrayList<>();
+	private final List<BufferedImage> images = new ArrayList<>();
+
+	/**
+	 * @param dir directory to write to, created if needed
+	 * @param scale whole-pixel upscaling applied to every image
+	 */
+	public ImageExport(File dir, int scale) {
+		this.dir = dir;
+		this.scale = scale;
+	}
+
+	/**
+	 * @param name file name within the directory, written as PNG
+	 * @param img unscaled image. Must not be modified until written.
+	 */
+	public ImageExport add(String name, BufferedImage img) {
+		names.add(name);
+		images.add(img);
+		return this;
+	}
+
+	/**
+	 * Scales and writes every image added, in parallel on the given executor.
+	 * @return completes once all are written, or exceptionally with the first
+	 * failure
+	 */
+	public CompletableFuture<Void> writeAsync(Executor executor) {
+		CompletableFuture<?>[] writes = new CompletableFuture<?>[images.size()];
+		dir.mkdirs();
+		for(int i=0; i<writes.length; i++) {
+			File file = new File(dir, names.get(i));
+			BufferedImage img = images.get(i);
+			writes[i] = CompletableFuture.runAsync(() -> {
+				try {
+					ImageIO.write(scaled(img, scale), "PNG", file);
+				} catch (IOException ex) {
+					throw new UncheckedIOException(file+": "+ex.getMessage(), ex);
+				}
+			}, executor);
+		}
+		return CompletableFuture.allOf(writes);
+	}
+
+	/**
+	 * Writes every image added, in parallel, returning once all are written.
+	 */
+	public void write() throws IOException {
+		try {
+			writeAsync(ForkJoinPool.commonPool()).join();
+		} catch (CompletionException ex) {
+			if(ex.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException)ex.getCause()).getCause();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @return a new ARGB image, fully transparent, whose pixels can be written
+	 * through {@link #pixels}
+	 */
+	static BufferedImage create(int width, int height) {
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	/**
+	 * @return the row-major ARGB pixels backing an image from {@link #create}
+	 */
+	static int[] pixels(BufferedImage img) {
+		return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * @return the image upscaled by nearest neighbour, as ARGB
+	 */
+	public static BufferedImage scaled(BufferedImage img, int scale) {
+		int w = img.getWidth(), h = img.getHeight(), sw = w*scale;
+		int[] src = img.getType()==BufferedImage.TYPE_INT_ARGB
+				? pixels(img)
+				: img.getRGB(0, 0, w, h, null, 0, w);
+		BufferedImage dest = create(sw, h*scale);
+		int[] dst = pixels(dest);
+		for(int y=0; y<h; y++) {
+			int row = y*scale*sw;
+			for(int x=0; x<w; x++)
+				Arrays.fill(dst, row + x*scale, row + (x+1)*scale, src[y*w + x]);
+			for(int r=1; r<scale; r++)
+				System.arraycopy(dst, row, dst, row + r*sw, sw);
+		}
+		return dest;
+	}
+
+}
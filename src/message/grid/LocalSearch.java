@@ -0,0 +1,87 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Simulated annealing over single pixel flips, used to polish the best
+ * individuals of each generation. With a temperature of zero this is plain
+ * hill-climbing, accepting only flips that don't make the pattern worse.
+ *
+ * @author kg249
+ */
+public class LocalSearch {
+
+	private final MessageFamily[] families;
+	private final int steps;
+	private final double temperature;
+	private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+	/**
+	 * @param steps number of flips to try per refinement
+	 * @param temperature starting temperature, cooled linearly to zero over the
+	 * steps. A flip that worsens the error by d is accepted with probability
+	 * exp(-d/t).
+	 */
+	public LocalSearch(MessageFamily[] families, int steps, double temperature) {
+		this.families = families;
+		this.steps = steps;
+		this.temperature = temperature;
+	}
+
+	/**
+	 * Refines pattern in place. Flips are scored without any connectivity
+	 * penalty, which is only applied to the final result.
+	 * Leaves the pattern as it was unless something better was found.
+	 */
+	public void refine(Pattern pattern, SplittableRandom random) {
+		Workspace w = workspaces.get();
+		if(w.state==null || w.best.getWidth()!=pattern.getWidth() || w.best.getHeight()!=pattern.getHeight()) {
+			w.state = new ErrorState(pattern, families);
+			w.best = new Pattern(pattern.getWidth(), pattern.getHeight());
+		} else {
+			w.state.reset(pattern);
+		}
+		ErrorState state = w.state;
+		int bestError = state.getError();
+		boolean improved = false;
+		int size = state.getSize();
+		for(int step=0; step<steps; step++) {
+			int i = random.nextInt(size);
+			int delta = state.getDelta(i);
+			double t = temperature * (steps-step) / steps;
+			if(delta<=0 || (t>0 && random.nextDouble() < Math.exp(-delta/t))) {
+				state.flip(i);
+				if(state.getError() < bestError) {
+					bestError = state.getError();
+					state.copyTo(w.best);
+					improved = true;
+				}
+			}
+		}
+		if(!improved)
+			return;
+		if(isPenalised()) {
+			w.best.computeError(families);
+			if(w.best.compareTo(pattern)>=0)
+				return;
+		}
+		pattern.set(w.best);
+	}
+
+	/**
+	 * Each thread's working state, kept between refinements so that they don't
+	 * allocate.
+	 */
+	private static final class Workspace {
+		ErrorState state;
+		Pattern best;
+	}
+
+	private boolean isPenalised() {
+		for(MessageFamily f : families)
+			if(f.getConnectivityPenalty()>0)
+				return true;
+		return false;
+	}
+
+}
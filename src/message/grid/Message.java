@@ -1,5 +1,6 @@
 package message.grid;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,14 +13,52 @@ import java.util.Collection;
  */
 public class Message {
 	private final Collection<OffsetImage> images = new ArrayList<>();
+	private volatile MessageMask mask;
 	
 	public Message() {}
 	
 	public Message addImage(int x, int y, BufferedImage img) {
+		return addImage(x, y, TriImage.of(img));
+	}
+	
+	public Message addImage(int x, int y, TriImage img) {
 		images.add(new OffsetImage(x, y, img));
+		mask = null;
 		return this;
 	}
 	
+	/**
+	 * @return this message compiled for the given pattern size. The result is
+	 * cached, so repeated calls for the same size are free.
+	 */
+	public MessageMask getMask(int width, int height) {
+		MessageMask m = mask;
+		if(m==null || !m.fits(width, height)) {
+			m = new MessageMask(this, width, height);
+			mask = m;
+		}
+		return m;
+	}
+	
+	/**
+	 * @return the images in the order added; earlier images take precedence
+	 * where they overlap
+	 */
+	Collection<OffsetImage> getImages() { return images; }
+	
+	/**
+	 * @return the smallest rectangle holding every image, which may extend
+	 * outside the pattern. Pixels outside it match either colour.
+	 */
+	public Rectangle getBounds() {
+		Rectangle r = null;
+		for(OffsetImage oi : images) {
+			Rectangle b = new Rectangle(oi.getX(), oi.getY(), oi.getWidth(), oi.getHeight());
+			r = r==null ? b : r.union(b);
+		}
+		return r==null ? new Rectangle() : r;
+	}
+	
 	public boolean matches(int x, int y, boolean isWhite) {
 		for(OffsetImage oi : images) {
 			if(oi.isInBounds(x, y))
@@ -29,41 +68,35 @@ public class Message {
 	}
 	
 	public int getError(Pattern pattern) {
-		int err = 0;
-		for(int x=0; x<pattern.getWidth(); x++) {
-			for(int y=0; y<pattern.getHeight(); y++) {
-				boolean isWhite = pattern.isWhite(x, y);
-				if(!matches(x, y, isWhite))
-					err+=isWhite?1:2;
-			}
-		}
-		return err;
+		return getMask(pattern.getWidth(), pattern.getHeight()).getError(pattern.words());
 	}
 	
 	public BufferedImage toImage(Pattern pattern) {
-		BufferedImage img = new BufferedImage(pattern.getWidth(), pattern.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		for(int x=0; x<pattern.getWidth(); x++)
-			for(int y=0; y<pattern.getHeight(); y++) {
-				img.setRGB(x, y, 0xFF00FFFF);
+		BufferedImage img = ImageExport.create(pattern.getWidth(), pattern.getHeight());
+		int[] pixels = ImageExport.pixels(img);
+		for(int y=0; y<pattern.getHeight(); y++)
+			for(int x=0; x<pattern.getWidth(); x++) {
+				int argb = 0xFF00FFFF;
 				for(OffsetImage oi : images) {
 					if(oi.isInBounds(x, y)) {
 						if(oi.isWhite(x,y)!=pattern.isWhite(x, y))
-							img.setRGB(x, y, oi.isWhite(x,y)?0xFFFFFFFF:0xFF000000);
+							argb = oi.isWhite(x,y)?0xFFFFFFFF:0xFF000000;
 						else
-							img.setRGB(x, y, 0xFFFF0000);
+							argb = 0xFFFF0000;
 						break;
 					}
 				}
+				pixels[y*pattern.getWidth() + x] = argb;
 			}
 		return img;
 	}
 	
-	private static class OffsetImage {
+	static class OffsetImage {
 	
 		private final int x, y;
-		private final BufferedImage img;
+		private final TriImage img;
 
-		public OffsetImage(int x, int y, BufferedImage img) {
+		public OffsetImage(int x, int y, TriImage img) {
 			this.x = x;
 			this.y = y;
 			this.img = img;
@@ -73,17 +106,17 @@ public class Message {
 		public int getY() { return y; }
 		public int getWidth() { return img.getWidth(); }
 		public int getHeight() { return img.getHeight(); }
-		public BufferedImage getImg() { return img; }
+		public TriImage getImg() { return img; }
 		
 		public boolean isInBounds(int x, int y) {
 			if(x>=this.x && x<this.x+img.getWidth() & y>=this.y && y<this.y+img.getHeight()) {
-				return img.getRGB(x-this.x, y-this.y)!=0xFF0000FF;
+				return img.isOpaque(x-this.x, y-this.y);
 			}
 			return false;
 		}
 		
 		public boolean isWhite(int x, int y) {
-			return img.getRGB(x-this.x, y-this.y)==0xFFFFFFFF;
+			return img.isWhite(x-this.x, y-this.y);
 		}
 	}
 }
\ No newline at end of file
@@ -1,8 +1,9 @@
 package message.grid;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A collection of individual variations of the same message. I.e. they have
@@ -17,38 +18,198 @@ import java.util.List;
 public class MessageFamily {
 	
 	private final List<Message> messages = new ArrayList<>();
+	private volatile Group[] compiled;
+	private int connectivityPenalty;
 	
 	public MessageFamily() {}
 
 	public MessageFamily add(Message e) {
 		messages.add(e);
+		invalidate();
 		return this;
 	}
 	
-	public int getMinimumError(Pattern pattern) {
-		Iterator<Message> it = messages.iterator();
-		int minError = it.next().getError(pattern);
-		while(it.hasNext()) {
-			int err = it.next().getError(pattern);
-			if(err<minError)
-				minError = err;
+	void invalidate() {
+		compiled = null;
+	}
+	
+	/**
+	 * Compiles the family for one pattern size. The error of the family is the
+	 * sum over the groups of the smallest error within each group, so a family
+	 * whose messages are combinations of independent parts can score each part
+	 * separately. A plain family is a single group of all its messages.
+	 */
+	Group[] compile(int width, int height) {
+		return new Group[]{new Group(messages, width, height)};
+	}
+	
+	/**
+	 * @param best the index, into the messages it was built from, of the chosen
+	 * message in each group
+	 * @return the message made up of those choices
+	 */
+	Message toMessage(int[] best) {
+		return messages.get(best[0]);
+	}
+	
+	private Group[] groups(int width, int height) {
+		Group[] g = compiled;
+		if(g==null || !g[0].masks[0].fits(width, height)) {
+			g = compile(width, height);
+			compiled = g;
 		}
+		return g;
+	}
+	
+	/**
+	 * @return the distinct masks of each group compiled for the given pattern
+	 * size, in the order they were added. The error of the family is the sum
+	 * over the groups of the smallest error within each. Must not be modified.
+	 */
+	public MessageMask[][] getGroups(int width, int height) {
+		Group[] g = groups(width, height);
+		MessageMask[][] masks = new MessageMask[g.length][];
+		for(int i=0; i<g.length; i++)
+			masks[i] = g[i].masks;
+		return masks;
+	}
+	
+	/**
+	 * @param penalty error added for each pixel of the best message's decoder
+	 * that would not be connected to its frame, see {@link #getUnconnected}.
+	 * 0, the default, leaves manufacturability to the editor.
+	 */
+	public void setConnectivityPenalty(int penalty) {
+		connectivityPenalty = penalty;
+	}
+	
+	public int getConnectivityPenalty() { return connectivityPenalty; }
+	
+	/**
+	 * @return the smallest error of any message, plus any connectivity penalty
+	 * for that message
+	 */
+	public int getMinimumError(Pattern pattern) {
+		return getMinimumError(pattern, null);
+	}
+	
+	/**
+	 * As getMinimumError(Pattern), scoring first in each group the message the
+	 * hints name, which gives a tight bound that lets the rest stop scoring as
+	 * soon as they can no longer beat it. Hints are only read, so threads
+	 * scoring at once can share them.
+	 * @param hints from getHints for a similar pattern of the same size, or
+	 * null to start from the first message
+	 */
+	public int getMinimumError(Pattern pattern, int[] hints) {
+		long[] words = pattern.words();
+		Group[] groups = groups(pattern.getWidth(), pattern.getHeight());
+		int minError = 0;
+		for(int g=0; g<groups.length; g++)
+			minError += groups[g].getMinimumError(words, hints==null ? 0 : hints[g]);
+		if(connectivityPenalty>0)
+			minError += connectivityPenalty*getUnconnected(pattern, hints);
 		return minError;
 	}
 	
+	/**
+	 * @return hints for getMinimumError: the best message of each group for
+	 * the pattern, such as the best of a population, to score its children
+	 */
+	public int[] getHints(Pattern pattern) {
+		long[] words = pattern.words();
+		Group[] groups = groups(pattern.getWidth(), pattern.getHeight());
+		int[] hints = new int[groups.length];
+		for(int g=0; g<groups.length; g++)
+			hints[g] = groups[g].getBest(words, 0);
+		return hints;
+	}
+	
+	/**
+	 * The decoder for a message is solid wherever the pattern doesn't already
+	 * show the message, and transparent elsewhere.
+	 * @return the number of solid pixels of the best message's decoder not
+	 * connected to the edge of the grid
+	 */
+	public int getUnconnected(Pattern pattern) {
+		return getUnconnected(pattern, null);
+	}
+	
+	private int getUnconnected(Pattern pattern, int[] hints) {
+		long[] words = pattern.words();
+		long[] solid = new long[words.length];
+		Group[] groups = groups(pattern.getWidth(), pattern.getHeight());
+		for(int g=0; g<groups.length; g++)
+			groups[g].masks[groups[g].getBest(words, hints==null ? 0 : hints[g])].addMismatches(words, solid);
+		return Connectivity.countUnconnected(solid, pattern.getWidth(), pattern.getHeight());
+	}
+	
+	/**
+	 * @return the first message with the smallest error
+	 */
 	public Message getBestMessage(Pattern pattern) {
-		Iterator<Message> it = messages.iterator();
-		Message best = it.next();
-		int minError = best.getError(pattern);
-		while(it.hasNext()) {
-			Message m = it.next();
-			int err = m.getError(pattern);
-			if(err<minError) {
-				minError = err;
-				best = m;
+		long[] words = pattern.words();
+		Group[] groups = groups(pattern.getWidth(), pattern.getHeight());
+		int[] best = new int[groups.length];
+		for(int i=0; i<groups.length; i++)
+			best[i] = groups[i].index[groups[i].getBest(words, 0)];
+		return toMessage(best);
+	}
+	
+	/**
+	 * A set of alternative messages compiled for one pattern size, with
+	 * duplicate masks removed.
+	 */
+	static final class Group {
+		
+		private final MessageMask[] masks; //distinct masks, in order of first appearance
+		private final int[] index; //index of the first message with each mask
+		
+		Group(List<Message> all, int width, int height) {
+			Map<MessageMask, Integer> distinct = new LinkedHashMap<>();
+			for(int i=0; i<all.size(); i++)
+				distinct.putIfAbsent(all.get(i).getMask(width, height), i);
+			masks = distinct.keySet().toArray(new MessageMask[0]);
+			index = distinct.values().stream().mapToInt(Integer::intValue).toArray();
+		}
+		
+		/**
+		 * @param start the mask to score first, giving the bound for the rest.
+		 * Out of range, as from hints for another compilation, starts at 0.
+		 */
+		int getMinimumError(long[] words, int start) {
+			int best = start<masks.length ? start : 0;
+			int minError = masks[best].getError(words);
+			for(int m=0; m<masks.length; m++) {
+				if(m==best) continue;
+				int err = masks[m].getError(words, minError);
+				if(err<minError) {
+					minError = err;
+					best = m;
+				}
+			}
+			return minError;
+		}
+		
+		/**
+		 * @param start the mask to score first, as for getMinimumError
+		 * @return the index of the first mask with the smallest error
+		 */
+		int getBest(long[] words, int start) {
+			int best = start<masks.length ? start : 0;
+			int minError = masks[best].getError(words);
+			for(int m=0; m<masks.length; m++) {
+				if(m==best) continue;
+				//Earlier masks win ties
+				int bound = m<best ? minError+1 : minError;
+				int err = masks[m].getError(words, bound);
+				if(err<bound) {
+					minError = err;
+					best = m;
+				}
 			}
+			return best;
 		}
-		return best;
 	}
 	
 }
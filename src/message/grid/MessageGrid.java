@@ -1,23 +1,17 @@
 package message.grid;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.GridLayout;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Random;
-import javax.imageio.ImageIO;
-import javax.swing.ImageIcon;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import javax.swing.JButton;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * Main method containing UI and genetic algorithm.
@@ -26,206 +20,218 @@ import javax.swing.JPanel;
  */
 public class MessageGrid {
 
-	private final static int GENERATIONS = 10;
-	private final static int INDIVIDUALS = 100;
-	private final static int SPECIES = 15;
-	
-	private static final int ELITIST = 5;
-	
-	private static Pattern roulette(Pattern[] patterns, double fitnessSum, Random random) {
-		double selected = random.nextDouble()*fitnessSum;
-		int i=0;
-		while(selected>patterns[i].getFitness()) {
-			selected-=patterns[i].getFitness();
-			i++;
+	/**
+	 * @return name in lower camel case, e.g. "Rose Garden" as "roseGarden"
+	 */
+	static String camelCase(String name) {
+		StringBuilder sb = new StringBuilder();
+		for(String word : name.trim().split("\\s+")) {
+			if(word.isEmpty()) continue;
+			sb.append(sb.length()==0 ? word.substring(0, 1).toLowerCase() : word.substring(0, 1).toUpperCase());
+			sb.append(word.substring(1));
 		}
-		return patterns[i];
-	}
-	
-	private static final int SCALE = 4;
-	private static BufferedImage scaled(BufferedImage img) {
-		BufferedImage dest = new BufferedImage(img.getWidth()*SCALE, img.getHeight()*SCALE, BufferedImage.TYPE_INT_ARGB);
-		Graphics2D g = dest.createGraphics();
-		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-		g.drawImage(img, 0, 0, img.getWidth()*SCALE, img.getHeight()*SCALE, null);
-		g.dispose();
-		return dest;
+		return sb.toString();
 	}
 
 	/**
-	 * @param args the command line arguments
+	 * Applies the settings' operators to a new evolution.
+	 * @return the fitness cache it was given, or null
 	 */
-	public static void main(String[] args) throws IOException {
-		//Load original images
-		BufferedImage father = ImageIO.read(new File("father.png"));
-		BufferedImage courage = ImageIO.read(new File("courage.png"));
-		BufferedImage huella = ImageIO.read(new File("huella.png"));
-		BufferedImage humana = ImageIO.read(new File("humana.png"));
-		BufferedImage hymn_ = ImageIO.read(new File("hymn.png"));
-		BufferedImage rose = ImageIO.read(new File("rose.png"));
-		BufferedImage garden = ImageIO.read(new File("garden.png"));
-		
-		//Build each of the four families
-		MessageFamily fatherCourage = new MessageFamily();
-		for(int top=-1; top<=4; top++)
-			fatherCourage.add(new Message().addImage(top, 0, father).addImage(0, 11, courage));
+	static FitnessCache configure(Evolution evolution, Settings settings, MessageFamily[] messageFamilies, Problem problem) {
+		evolution.setSelection(settings.getSelection());
+		evolution.setCrossover(settings.getCrossover());
+		evolution.setMigration(settings.getMigration());
+		evolution.setAdaptation(settings.getAdaptation());
+		if(settings.isBatchEvaluator())
+			evolution.setBatchEvaluator(new BatchEvaluator(messageFamilies, problem.getWidth(), problem.getHeight()));
+		if(settings.getRefineSteps()>0)
+			evolution.setLocalSearch(new LocalSearch(messageFamilies, settings.getRefineSteps(), settings.getRefineTemperature()));
+		FitnessCache cache = null;
+		if(settings.getCacheSize()>0) {
+			cache = new FitnessCache(messageFamilies, settings.getCacheSize());
+			evolution.setFitnessCache(cache);
+		}
+		return cache;
+	}
+	
+	/**
+	 * Runs the GA until its termination settings say to stop.
+	 */
+	private static Evolution evolve(Settings settings, Problem problem, MessageFamily[] messageFamilies, String[] names, ForkJoinPool pool) throws IOException {
+		//Iniitalise GA
+		Evolution evolution;
+		if(settings.getResume()!=null) {
+			Checkpoint checkpoint = Checkpoint.read(new File(settings.getResume()));
+			System.out.println("Resuming from generation "+checkpoint.getGeneration());
+			evolution = new Evolution(messageFamilies, checkpoint, settings.getElitist(), pool);
+		} else {
+			System.out.println("Seed "+settings.getSeed());
+			evolution = new Evolution(messageFamilies, problem.getWidth(), problem.getHeight(), settings.getSpecies(), settings.getIndividuals(), settings.getElitist(), settings.getSeed(), pool);
+		}
+		FitnessCache cache = configure(evolution, settings, messageFamilies, problem);
 		
-		MessageFamily huellaHumana = new MessageFamily();
-		for(int top=-1; top<=4; top++) for(int bottom=-1; bottom<=4; bottom++)
-			huellaHumana.add(new Message().addImage(top, 0, huella).addImage(bottom, 11, humana));
+		EvolutionListener log = e -> {
+			System.out.println("Gen "+e.getGeneration());
+			for(Species s : e.getSpecies())
+				System.out.println(s.getBest().getError());
+			System.out.println();
+		};
+		log.generationComplete(evolution);
+		evolution.addListener(log);
 		
-		MessageFamily hymn = new MessageFamily();
-		for(int top=-1; top<=8; top++)
-			for(int left=-1; left<=1; left++)
-			hymn.add(new Message().addImage(left, top, hymn_));
+		//Show UI with initial pattern, then follow the run
+		Visualizer visualizer = null;
+		if(!settings.isHeadless()) {
+			visualizer = new Visualizer(names, messageFamilies, settings.getFrameRate());
+			visualizer.generationComplete(evolution);
+			evolution.addListener(visualizer);
+		}
 		
-		MessageFamily roseGarden = new MessageFamily();
-		for(int top=-1; top<=24; top++) for(int bottom=-1; bottom<=4; bottom++)
-			roseGarden.add(new Message().addImage(top, 0, rose).addImage(bottom, 11, garden));
+		//JFR events whenever a recording is running, and optionally a file
+		Metrics metrics = new Metrics(names, messageFamilies, settings.getMetrics()==null ? null : new File(settings.getMetrics()));
+		metrics.setVisualizer(visualizer);
+		metrics.generationComplete(evolution);
+		evolution.addListener(metrics);
 		
-		//Array of all families for simplicity
-		MessageFamily[] messageFamilies = new MessageFamily[]{
-			fatherCourage, huellaHumana, hymn, roseGarden
-		};
+		//Where each species' error comes from, kept up to date through the run
+		ErrorMap heatmap = null;
+		if(settings.getHeatmap()!=null) {
+			heatmap = new ErrorMap(names, messageFamilies, problem.getWidth(), problem.getHeight());
+			heatmap.generationComplete(evolution);
+			evolution.addListener(heatmap);
+		}
 		
-		//Iniitalise GA
-		Random random = new Random();
-		Pattern[][] population = new Pattern[SPECIES][INDIVIDUALS];
-		Comparator<Pattern[]> SPECIES_COMP = (a,b) -> a[0].compareTo(b[0]);
+		Checkpointer checkpointer = null;
+		if(settings.getCheckpoint()!=null) {
+			checkpointer = new Checkpointer(new File(settings.getCheckpoint()), settings.getCheckpointInterval());
+			evolution.addListener(checkpointer);
+		}
 		
-		System.out.println("Gen 0");
-		for(int s=0; s<SPECIES; s++) {
-			for(int i=0; i<INDIVIDUALS; i++) {
-				population[s][i] = new Pattern(54, 22, random);
-				population[s][i].computeError(messageFamilies);
+		//Iterate through generations until told to stop
+		Termination termination = settings.getTermination();
+		termination.start();
+		if(settings.isAsync())
+			evolution.runIslands(termination);
+		else
+			while(!termination.isDone(evolution))
+				evolution.step();
+		System.out.println("Stopped at generation "+evolution.getGeneration()+", "+termination.getReason());
+		if(checkpointer!=null) {
+			try {
+				checkpointer.close(evolution);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
 			}
-			Arrays.sort(population[s]);
-			System.out.println(population[s][0].getError());
 		}
-		Arrays.sort(population, SPECIES_COMP);
-		System.out.println();
-		
-		//Show UI with initial pattern
-		JFrame frame = new JFrame("Output");
-		JLabel baseLbl = new JLabel(new ImageIcon(scaled(population[0][0].toImage())));
-		JLabel fatherCourageLbl = new JLabel(new ImageIcon(scaled(fatherCourage.getBestMessage(population[0][0]).toImage(population[0][0]))));
-		JLabel huellaHumanaLbl = new JLabel(new ImageIcon(scaled(huellaHumana.getBestMessage(population[0][0]).toImage(population[0][0]))));
-		JLabel hymnLbl = new JLabel(new ImageIcon(scaled(hymn.getBestMessage(population[0][0]).toImage(population[0][0]))));
-		JLabel roseGardenLbl = new JLabel(new ImageIcon(scaled(roseGarden.getBestMessage(population[0][0]).toImage(population[0][0]))));
-		
-		fatherCourageLbl.setBackground(Color.RED);
-		fatherCourageLbl.setOpaque(true);
-		huellaHumanaLbl.setBackground(Color.RED);
-		huellaHumanaLbl.setOpaque(true);
-		hymnLbl.setBackground(Color.RED);
-		hymnLbl.setOpaque(true);
-		roseGardenLbl.setBackground(Color.RED);
-		roseGardenLbl.setOpaque(true);
-		
-		frame.setLayout(new GridLayout(5, 2, 5, 5));
-		frame.add(baseLbl);
-		frame.add(new JLabel("Base"));
-		frame.add(fatherCourageLbl);
-		frame.add(new JLabel("Father Courage"));
-		frame.add(huellaHumanaLbl);
-		frame.add(new JLabel("Huella Humana"));
-		frame.add(hymnLbl);
-		frame.add(new JLabel("Hymn"));
-		frame.add(roseGardenLbl);
-		frame.add(new JLabel("Rose Garden"));
+		if(visualizer!=null)
+			visualizer.flush();
+		metrics.close();
+		if(heatmap!=null)
+			heatmap.write(new File(settings.getHeatmap()), settings.getScale());
+		if(cache!=null)
+			System.out.println("Cache hit rate "+cache.getHitRate());
+		return evolution;
+	}
+	
+	/**
+	 * @param args the command line arguments, see {@link Settings}
+	 */
+	public static void main(String[] args) throws IOException {
+		Settings settings;
+		try {
+			settings = Settings.parse(args);
+		} catch(IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			Settings.printUsage();
+			System.exit(1);
+			return;
+		}
 		
-		frame.pack();
-		frame.setLocationRelativeTo(null);
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.setVisible(true);
+		File problemFile = new File(settings.getProblem());
+		if(settings.isCompile()) {
+			Problem.compile(problemFile);
+			System.out.println("Compiled "+Problem.getCacheFile(problemFile));
+			return;
+		}
+		Problem problem = Problem.load(problemFile);
+		MessageFamily[] messageFamilies = problem.getFamilies();
+		String[] names = problem.getNames();
+		for(MessageFamily f : messageFamilies)
+			f.setConnectivityPenalty(settings.getConnectivityPenalty());
 		
-		//Iterate through generations, showing current state on UI
-		for(int g=1; g<GENERATIONS; g++) {
-			System.out.println("Gen "+g);
-			
-			for(int s=0; s<SPECIES; s++) {
-				
-				double fitnessSum = 0.0;
-				for(Pattern p : population[s])
-					fitnessSum+=p.getFitness();
-				
-				Pattern[] nextGen = new Pattern[INDIVIDUALS];
-				System.arraycopy(population[s], 0, nextGen, 0, ELITIST);
-				for(int i=ELITIST; i<INDIVIDUALS; i++) {
-					Pattern pA = roulette(population[s], fitnessSum, random);
-					Pattern pB = roulette(population[s], fitnessSum, random);
-					nextGen[i] = new Pattern(pA, pB, random);
-					nextGen[i].computeError(messageFamilies);
-				}
-				Arrays.sort(nextGen);
-				population[s] = nextGen;
-				System.out.println(population[s][0].getError());
-				
-				//Update UI
-				baseLbl.setIcon(new ImageIcon(scaled(population[0][0].toImage())));
-				fatherCourageLbl.setIcon(new ImageIcon(scaled(fatherCourage.getBestMessage(population[0][0]).toImage(population[0][0]))));
-				huellaHumanaLbl.setIcon(new ImageIcon(scaled(huellaHumana.getBestMessage(population[0][0]).toImage(population[0][0]))));
-				hymnLbl.setIcon(new ImageIcon(scaled(hymn.getBestMessage(population[0][0]).toImage(population[0][0]))));
-				roseGardenLbl.setIcon(new ImageIcon(scaled(roseGarden.getBestMessage(population[0][0]).toImage(population[0][0]))));
-			}
-			Arrays.sort(population, SPECIES_COMP);
-			System.out.println();
+		ForkJoinPool pool = new ForkJoinPool(settings.getThreads());
+		Pattern best = null;
+		Pattern[] seeds = new Pattern[0];
+		if(!settings.getSolver().equals("alternating")) {
+			Evolution evolution = evolve(settings, problem, messageFamilies, names, pool);
+			best = evolution.getBest();
+			seeds = Arrays.stream(evolution.getSpecies()).map(Species::getBest).toArray(Pattern[]::new);
+		}
+		if(!settings.getSolver().equals("ga")) {
+			if(best==null)
+				System.out.println("Seed "+settings.getSeed());
+			AlternatingSolver solver = new AlternatingSolver(messageFamilies, problem.getWidth(), problem.getHeight());
+			solver.setNodeLimit(settings.getNodeLimit());
+			Pattern[] starts = seeds;
+			long start = System.nanoTime();
+			Pattern solved = pool.submit(() -> solver.solve(starts, settings.getStarts(), settings.getSeed())).join();
+			System.out.printf("Alternating solver: %d from %d starts in %.0f ms%s%n", solved.getError(),
+					starts.length+settings.getStarts(), (System.nanoTime()-start)/1e6,
+					settings.getNodeLimit()==0 ? "" : solver.isOptimal() ? ", optimal" : ", node limit reached");
+			if(best==null || solved.compareTo(best)<0)
+				best = solved;
 		}
 		
 		System.out.println("Best");
-		System.out.println(population[0][0].getError());
+		System.out.println(best.getError());
 		
 		//Output multicolour overview images. (Not directly manufacturable)
-		File dest = new File("output");
-		dest.mkdirs();
-		ImageIO.write(scaled(population[0][0].toImage()), "PNG", new File(dest, "base.png"));
-		ImageIO.write(scaled(fatherCourage.getBestMessage(population[0][0]).toImage(population[0][0])), "PNG", new File(dest, "father courage.png"));
-		ImageIO.write(scaled(huellaHumana.getBestMessage(population[0][0]).toImage(population[0][0])), "PNG", new File(dest, "huella humana.png"));
-		ImageIO.write(scaled(hymn.getBestMessage(population[0][0]).toImage(population[0][0])), "PNG", new File(dest, "hymn.png"));
-		ImageIO.write(scaled(roseGarden.getBestMessage(population[0][0]).toImage(population[0][0])), "PNG", new File(dest, "rose garden.png"));
+		File dest = new File(settings.getOutput());
+		int scale = settings.getScale();
+		ImageExport overview = new ImageExport(dest, scale).add("base.png", best.toImage());
+		for(int f=0; f<messageFamilies.length; f++)
+			overview.add(names[f].toLowerCase()+".png", messageFamilies[f].getBestMessage(best).toImage(best));
+		overview.write();
+		
+		if(settings.isHeadless())
+			return;
 		
 		//Create editor frame
 		JFrame editorFrame = new JFrame("Editor");
-		JPanel pane = new JPanel(new GridLayout(4, 1, 5, 5));
-		EditorPane editorFatherCourage = new EditorPane(population[0][0], fatherCourage.getBestMessage(population[0][0]));
-		EditorPane editorHuellaHumana = new EditorPane(population[0][0], huellaHumana.getBestMessage(population[0][0]));
-		EditorPane editorHymn = new EditorPane(population[0][0], hymn.getBestMessage(population[0][0]));
-		EditorPane editorRoseGarden = new EditorPane(population[0][0], roseGarden.getBestMessage(population[0][0]));
-		pane.add(editorFatherCourage);
-		pane.add(editorHuellaHumana);
-		pane.add(editorHymn);
-		pane.add(editorRoseGarden);
+		JPanel pane = new JPanel(new GridLayout(messageFamilies.length, 1, 5, 5));
+		EditorPane[] editors = new EditorPane[messageFamilies.length];
+		for(int f=0; f<editors.length; f++) {
+			editors[f] = new EditorPane(best, messageFamilies[f].getBestMessage(best));
+			pane.add(editors[f]);
+		}
 		editorFrame.add(pane);
 		JButton btn = new JButton("Save");
 		btn.addActionListener(e -> {
-			if(!editorFatherCourage.isFullyConnected()) {
-				JOptionPane.showMessageDialog(editorFrame, "Message 'Father Courage' is not fully connected.", "Error", JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-			if(!editorHuellaHumana.isFullyConnected()) {
-				JOptionPane.showMessageDialog(editorFrame, "Message 'Huella Humana' is not fully connected.", "Error", JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-			if(!editorHymn.isFullyConnected()) {
-				JOptionPane.showMessageDialog(editorFrame, "Message 'Hymn' is not fully connected.", "Error", JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-			if(!editorRoseGarden.isFullyConnected()) {
-				JOptionPane.showMessageDialog(editorFrame, "Message 'Rose Garden' is not fully connected.", "Error", JOptionPane.ERROR_MESSAGE);
-				return;
+			for(int f=0; f<editors.length; f++) {
+				if(!editors[f].isFullyConnected()) {
+					JOptionPane.showMessageDialog(editorFrame, "Message '"+names[f]+"' is not fully connected.", "Error", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
 			}
-			try {
-				ImageIO.write(scaled(editorFatherCourage.getCutImage()), "PNG", new File("output\\fatherCourageCut.png"));
-				ImageIO.write(scaled(editorFatherCourage.getEngraveImage()), "PNG", new File("output\\fatherCourageEngrave.png"));
-				ImageIO.write(scaled(editorHuellaHumana.getCutImage()), "PNG", new File("output\\huellaHumanaCut.png"));
-				ImageIO.write(scaled(editorHuellaHumana.getEngraveImage()), "PNG", new File("output\\huellaHumanaEngrave.png"));
-				ImageIO.write(scaled(editorHymn.getCutImage()), "PNG", new File("output\\hymnCut.png"));
-				ImageIO.write(scaled(editorHymn.getEngraveImage()), "PNG", new File("output\\hymnEngrave.png"));
-				ImageIO.write(scaled(editorRoseGarden.getCutImage()), "PNG", new File("output\\roseGardenCut.png"));
-				ImageIO.write(scaled(editorRoseGarden.getEngraveImage()), "PNG", new File("output\\roseGardenEngrave.png"));
-			} catch (IOException ex) {
-				ex.printStackTrace();
+			//Images and cells are taken on the EDT, then written off it
+			ImageExport export = new ImageExport(dest, scale);
+			VectorExport vectors = new VectorExport(dest, settings.getVectorCell(), settings.getVectorFormats());
+			int width = problem.getWidth(), height = problem.getHeight();
+			for(int f=0; f<editors.length; f++) {
+				String file = camelCase(names[f]);
+				export.add(file+"Cut.png", editors[f].getCutImage());
+				export.add(file+"Engrave.png", editors[f].getEngraveImage());
+				vectors.addCut(file+"Cut", width, height, editors[f].getCutCells());
+				vectors.addEngrave(file+"Engrave", width, height, editors[f].getEngraveCells());
 			}
+			btn.setEnabled(false);
+			CompletableFuture<Void> saved = CompletableFuture.allOf(export.writeAsync(ForkJoinPool.commonPool()),
+					vectors.writeAsync(ForkJoinPool.commonPool()));
+			saved.whenComplete((done, ex) -> SwingUtilities.invokeLater(() -> {
+				btn.setEnabled(true);
+				if(ex!=null)
+					JOptionPane.showMessageDialog(editorFrame, "Saving failed: "+ex.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+			}));
 		});
 		editorFrame.add(btn, BorderLayout.SOUTH);
 		editorFrame.pack();
@@ -0,0 +1,204 @@
+package message.grid;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A Message compiled for a fixed pattern size. Pixels are packed row-major into
+ * 64-bit words in the same layout as {@link Pattern#words()}, so the error
+ * against a pattern can be found with a handful of bitwise operations per word
+ * rather than image lookups per pixel.
+ *
+ * Only the words the message's images touch are stored, along with their
+ * indices, so both the memory and the cost of scoring follow the message's area
+ * rather than the pattern's.
+ *
+ * @author kg249
+ */
+public final class MessageMask {
+
+	private final int width;
+	private final int height;
+	private final int[] index; //ascending pattern word of each stored word
+	private final long[] defined; //pixels covered by a non-transparent image pixel
+	private final long[] white; //defined pixels that must be white
+	private final Rectangle bounds; //of the defined pixels
+
+	MessageMask(Message message, int width, int height) {
+		this.width = width;
+		this.height = height;
+		//Every word any image's rectangle touches, then the pixels of each
+		//image not already covered by an earlier one, as in Message.matches
+		int[] words = new int[0];
+		int n = 0;
+		for(Message.OffsetImage oi : message.getImages()) {
+			Rectangle r = clip(oi);
+			for(int y=r.y; y<r.y+r.height; y++) {
+				int a = (y*width+r.x)>>>6, b = (y*width+r.x+r.width-1)>>>6;
+				if(n+b-a+1>words.length)
+					words = Arrays.copyOf(words, Math.max(2*words.length, n+b-a+1));
+				for(int w=a; w<=b; w++)
+					words[n++] = w;
+			}
+		}
+		Arrays.sort(words, 0, n);
+		int distinct = 0;
+		for(int i=0; i<n; i++)
+			if(distinct==0 || words[distinct-1]!=words[i])
+				words[distinct++] = words[i];
+		long[] d = new long[distinct], wh = new long[distinct];
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+		for(Message.OffsetImage oi : message.getImages()) {
+			Rectangle r = clip(oi);
+			for(int y=r.y; y<r.y+r.height; y++) {
+				int k = Arrays.binarySearch(words, 0, distinct, (y*width+r.x)>>>6);
+				for(int x=r.x; x<r.x+r.width; x++) {
+					int i = y*width + x;
+					if(i>>>6 != words[k]) k++;
+					long bit = 1L<<i;
+					if(!oi.isInBounds(x, y) || (d[k] & bit)!=0) continue;
+					d[k] |= bit;
+					if(oi.isWhite(x, y))
+						wh[k] |= bit;
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+				}
+			}
+		}
+		//Drop words only transparent pixels touched
+		int m = 0;
+		for(int k=0; k<distinct; k++)
+			if(d[k]!=0) {
+				words[m] = words[k];
+				d[m] = d[k];
+				wh[m++] = wh[k];
+			}
+		index = Arrays.copyOf(words, m);
+		defined = Arrays.copyOf(d, m);
+		white = Arrays.copyOf(wh, m);
+		bounds = m==0 ? new Rectangle() : new Rectangle(minX, minY, maxX-minX+1, maxY-minY+1);
+	}
+
+	private Rectangle clip(Message.OffsetImage oi) {
+		Rectangle r = new Rectangle(oi.getX(), oi.getY(), oi.getWidth(), oi.getHeight())
+				.intersection(new Rectangle(width, height));
+		return r.isEmpty() ? new Rectangle() : r;
+	}
+
+	/**
+	 * @return the number of 64-bit words needed to hold one bit per pixel
+	 */
+	public static int words(int width, int height) {
+		return (width*height + 63) >>> 6;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	public boolean fits(int width, int height) {
+		return this.width==width && this.height==height;
+	}
+
+	/**
+	 * @return the bounding box of the pixels this message defines, empty if
+	 * none are
+	 */
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+	/**
+	 * @return the number of words stored, out of words(width, height)
+	 */
+	public int getWordCount() { return index.length; }
+
+	/**
+	 * Black pixels where white is required cost 2, white pixels where black is
+	 * required cost 1.
+	 */
+	public int getError(long[] pattern) {
+		int err = 0;
+		for(int k=0; k<index.length; k++) {
+			long p = pattern[index[k]];
+			err += Long.bitCount(p & (defined[k]^white[k])) + (Long.bitCount(~p & white[k])<<1);
+		}
+		return err;
+	}
+	
+	/**
+	 * As getError, but may stop early once the error reaches bound.
+	 * @return the error if it is less than bound, otherwise some value at least
+	 * bound
+	 */
+	public int getError(long[] pattern, int bound) {
+		int err = 0;
+		for(int k=0; k<index.length && err<bound; k++) {
+			long p = pattern[index[k]];
+			err += Long.bitCount(p & (defined[k]^white[k])) + (Long.bitCount(~p & white[k])<<1);
+		}
+		return err;
+	}
+	
+	/**
+	 * @return the error contributed by pixel i alone, were it the given colour
+	 */
+	public int getError(int i, boolean isWhite) {
+		if(!bounds.contains(i%width, i/width))
+			return 0;
+		int k = Arrays.binarySearch(index, i>>>6);
+		long bit = 1L<<i;
+		if(k<0 || (defined[k] & bit)==0)
+			return 0;
+		if((white[k] & bit)!=0)
+			return isWhite?0:2;
+		return isWhite?1:0;
+	}
+
+	/**
+	 * @return the indices of the pixels that must be white, or of those that
+	 * must be black, in ascending order
+	 */
+	int[] pixels(boolean isWhite) {
+		int count = 0;
+		for(int k=0; k<index.length; k++)
+			count += Long.bitCount(isWhite ? white[k] : defined[k]^white[k]);
+		int[] pixels = new int[count];
+		int n = 0;
+		for(int k=0; k<index.length; k++) {
+			long bits = isWhite ? white[k] : defined[k]^white[k];
+			while(bits!=0) {
+				pixels[n++] = (index[k]<<6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits-1;
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Sets the bits of out where the pattern doesn't match this message, i.e.
+	 * the pixels a decoder for it must cover.
+	 */
+	void addMismatches(long[] pattern, long[] out) {
+		for(int k=0; k<index.length; k++) {
+			long p = pattern[index[k]];
+			out[index[k]] |= (p & (defined[k]^white[k])) | (~p & white[k]);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(!(obj instanceof MessageMask)) return false;
+		MessageMask o = (MessageMask)obj;
+		return fits(o.width, o.height) && Arrays.equals(index, o.index)
+				&& Arrays.equals(defined, o.defined) && Arrays.equals(white, o.white);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31*(31*Arrays.hashCode(index) + Arrays.hashCode(defined)) + Arrays.hashCode(white);
+	}
+
+}
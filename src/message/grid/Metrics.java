@@ -0,0 +1,201 @@
+package message.grid;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records each species' generations as JFR events and, optionally, as rows
+ * of a CSV or JSON Lines file, flushed after every generation so a run can be
+ * followed as it goes.
+ *
+ * In asynchronous runs islands may complete several generations between
+ * notifications, in which case only their latest is recorded.
+ *
+ * @author kg249
+ */
+public class Metrics implements EvolutionListener, Closeable {
+
+	private final String[] names;
+	private final MessageFamily[] families;
+	private final Writer out; //null for JFR only
+	private final boolean json;
+	private Visualizer visualizer;
+	private int[] recorded; //latest generation recorded per island
+	private long lastRenderTime;
+
+	/**
+	 * @param file written as JSON Lines if it ends with .json or .jsonl,
+	 * otherwise as CSV. Null to only emit JFR events.
+	 */
+	public Metrics(String[] names, MessageFamily[] families, File file) throws IOException {
+		this.names = names;
+		this.families = families;
+		if(file==null) {
+			out = null;
+			json = false;
+		} else {
+			String name = file.getName().toLowerCase(Locale.ROOT);
+			json = name.endsWith(".json") || name.endsWith(".jsonl");
+			out = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8));
+			if(!json)
+				writeHeader();
+		}
+	}
+
+	/**
+	 * @param visualizer whose rendering time to report, or null
+	 */
+	public void setVisualizer(Visualizer visualizer) {
+		this.visualizer = visualizer;
+	}
+
+	@Override
+	public void generationComplete(Evolution evolution) {
+		Species[] islands = evolution.getIslands();
+		if(recorded==null) {
+			recorded = new int[islands.length];
+			Arrays.fill(recorded, -1);
+		}
+		long renderTime = visualizer==null ? 0 : visualizer.getRenderTime();
+		long uiTime = renderTime - lastRenderTime;
+		lastRenderTime = renderTime;
+		for(int s=0; s<islands.length; s++) {
+			GenerationStats stats = islands[s].getStats();
+			if(stats==null || stats.getGeneration()<=recorded[s]) continue;
+			recorded[s] = stats.getGeneration();
+			record(s, stats, islands[s].getIndividuals(), uiTime);
+		}
+		if(out!=null) {
+			try {
+				out.flush();
+			} catch (IOException ex) {
+				System.err.println("Failed to write metrics: "+ex);
+			}
+		}
+	}
+
+	private void record(int species, GenerationStats stats, Pattern[] individuals, long uiTime) {
+		GenerationEvent event = new GenerationEvent();
+		if(!event.isEnabled() && out==null) return;
+		long sum = 0;
+		for(Pattern p : individuals)
+			sum += p.getError();
+		int[] familyErrors = new int[families.length];
+		for(int f=0; f<families.length; f++)
+			familyErrors[f] = families[f].getMinimumError(individuals[0]);
+
+		event.generation = stats.getGeneration();
+		event.species = species;
+		event.evaluations = stats.getEvaluations();
+		event.evaluationRate = stats.getEvaluationRate();
+		event.selectTime = stats.getSelectTime();
+		event.crossoverTime = stats.getCrossoverTime();
+		event.evaluateTime = stats.getEvaluateTime();
+		event.refineTime = stats.getRefineTime();
+		event.uiTime = uiTime;
+		event.bestError = individuals[0].getError();
+		event.meanError = (double)sum/individuals.length;
+		event.worstError = individuals[individuals.length-1].getError();
+		event.diversity = diversity(individuals);
+		StringBuilder sb = new StringBuilder();
+		for(int f=0; f<families.length; f++)
+			sb.append(f==0 ? "" : ", ").append(names[f]).append('=').append(familyErrors[f]);
+		event.familyErrors = sb.toString();
+		event.commit();
+
+		if(out!=null) {
+			try {
+				if(json)
+					writeJson(event, familyErrors);
+				else
+					writeCsv(event, familyErrors);
+			} catch (IOException ex) {
+				System.err.println("Failed to write metrics: "+ex);
+			}
+		}
+	}
+
+	/**
+	 * @return the mean Hamming distance over all pairs of individuals. A pixel
+	 * white in c of the n individuals differs between c*(n-c) pairs, so only
+	 * the white pixels are counted, rather than every pair compared.
+	 */
+	static double diversity(Pattern[] individuals) {
+		int n = individuals.length;
+		if(n<2) return 0.0;
+		int words = individuals[0].words().length;
+		int[] white = new int[words*64];
+		for(Pattern p : individuals) {
+			long[] w = p.words();
+			for(int i=0; i<words; i++)
+				for(long bits=w[i]; bits!=0; bits &= bits-1)
+					white[(i<<6) + Long.numberOfTrailingZeros(bits)]++;
+		}
+		long total = 0;
+		for(int c : white)
+			total += (long)c*(n-c);
+		return total / (n*(n-1)/2.0);
+	}
+
+	private void writeHeader() throws IOException {
+		out.write("generation,species,evaluations,evaluations_per_second,select_ms,crossover_ms,evaluate_ms,refine_ms,ui_ms,best,mean,worst,diversity");
+		for(String name : names)
+			out.write(","+csv(name));
+		out.write("\n");
+	}
+
+	private void writeCsv(GenerationEvent e, int[] familyErrors) throws IOException {
+		out.write(String.format(Locale.ROOT, "%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.2f,%d,%.2f",
+				e.generation, e.species, e.evaluations, e.evaluationRate,
+				e.selectTime/1e6, e.crossoverTime/1e6, e.evaluateTime/1e6, e.refineTime/1e6, e.uiTime/1e6,
+				e.bestError, e.meanError, e.worstError, e.diversity));
+		for(int err : familyErrors)
+			out.write(","+err);
+		out.write("\n");
+	}
+
+	private void writeJson(GenerationEvent e, int[] familyErrors) throws IOException {
+		out.write(String.format(Locale.ROOT, "{\"generation\":%d,\"species\":%d,\"evaluations\":%d,\"evaluations_per_second\":%.1f,"
+				+ "\"select_ms\":%.3f,\"crossover_ms\":%.3f,\"evaluate_ms\":%.3f,\"refine_ms\":%.3f,\"ui_ms\":%.3f,"
+				+ "\"best\":%d,\"mean\":%.2f,\"worst\":%d,\"diversity\":%.2f,\"families\":{",
+				e.generation, e.species, e.evaluations, e.evaluationRate,
+				e.selectTime/1e6, e.crossoverTime/1e6, e.evaluateTime/1e6, e.refineTime/1e6, e.uiTime/1e6,
+				e.bestError, e.meanError, e.worstError, e.diversity));
+		for(int f=0; f<familyErrors.length; f++)
+			out.write((f==0 ? "" : ",")+json(names[f])+":"+familyErrors[f]);
+		out.write("}}\n");
+	}
+
+	private static String csv(String s) {
+		if(s.indexOf(',')<0 && s.indexOf('"')<0)
+			return s;
+		return '"'+s.replace("\"", "\"\"")+'"';
+	}
+
+	private static String json(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(char c : s.toCharArray()) {
+			if(c=='"' || c=='\\')
+				sb.append('\\').append(c);
+			else if(c<0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(out!=null)
+			out.close();
+	}
+
+}
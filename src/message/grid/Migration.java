@@ -0,0 +1,73 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Sends copies of each island's best individuals to other islands every few
+ * generations. Migrants arrive in the receiving species' inbox and join its
+ * population at the start of its next generation.
+ *
+ * @author kg249
+ */
+public class Migration {
+
+	public enum Topology {
+		/** each island sends to the next */
+		RING,
+		/** each island sends to one other island chosen at random */
+		RANDOM,
+		/** each island sends to every other island */
+		FULL
+	}
+
+	private final Topology topology;
+	private final int interval;
+	private final int migrants;
+
+	/**
+	 * @param interval generations between migrations
+	 * @param migrants number of best individuals sent each time
+	 */
+	public Migration(Topology topology, int interval, int migrants) {
+		if(interval<1)
+			throw new IllegalArgumentException("Migration interval must be at least 1");
+		this.topology = topology;
+		this.interval = interval;
+		this.migrants = migrants;
+	}
+
+	public boolean isDue(int generation) {
+		return generation % interval == 0;
+	}
+
+	/**
+	 * Sends the best of islands[from] to its neighbours.
+	 */
+	void emigrate(Species[] islands, int from) {
+		if(islands.length<2) return;
+		Species source = islands[from];
+		Pattern[] best = source.getIndividuals();
+		switch(topology) {
+			case RING:
+				send(best, islands[(from+1) % islands.length]);
+				break;
+			case RANDOM: {
+				SplittableRandom random = source.getMigrationRandom(source.getGeneration());
+				int to = random.nextInt(islands.length-1);
+				send(best, islands[to<from ? to : to+1]);
+				break;
+			}
+			case FULL:
+				for(int to=0; to<islands.length; to++)
+					if(to!=from)
+						send(best, islands[to]);
+				break;
+		}
+	}
+
+	private void send(Pattern[] best, Species to) {
+		for(int i=0; i<migrants && i<best.length; i++)
+			to.send(new Pattern(best[i]));
+	}
+
+}
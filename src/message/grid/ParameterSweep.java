@@ -0,0 +1,335 @@
+package message.grid;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the GA under many settings at once, to tune them for a problem. Takes
+ * the same --key=value arguments as MessageGrid, but any value may be a comma
+ * separated list to sweep over, e.g. --individuals=50,100,200, except for
+ * settings that are lists themselves, such as --vector=svg,dxf. Every
+ * combination is run, or with --sweep.random=N, N picked at random, in which
+ * case values may also be ranges A..B. Each configuration is run once per seed,
+ * with the same seeds for every configuration.
+ *
+ * Runs share the compiled problem and one fork-join pool sized by --threads, so
+ * however many run at once, they never use more cores than that. Running
+ * several at once keeps the cores busy through each run's serial phases, but
+ * their times include waiting on each other, so compare times only within a
+ * sweep.
+ *
+ * Writes every run's best error after each generation, with the time taken, to
+ * a CSV file, and prints a summary of each configuration.
+ *
+ * @author kg249
+ */
+public class ParameterSweep {
+
+	private static final String[][] OPTIONS = {
+		{"sweep.random", "0", "configurations to pick at random, 0 for every combination"},
+		{"sweep.seeds", "3", "runs of each configuration, each with its own seed"},
+		{"sweep.runs", "0", "runs at once, 0 for one per core"},
+		{"sweep.table", "sweep.csv", "file to write each run's error over time to"},
+	};
+	/** Shared by every run, so can't vary between them. */
+	private static final Set<String> FIXED = Set.of("problem", "connectivity.penalty", "threads");
+	/** Take comma separated lists themselves, so are never swept. */
+	private static final Set<String> LISTS = Set.of("vector");
+	/** Meaningless or harmful for many runs at once. */
+	private static final Set<String> UNSUPPORTED = Set.of("compile", "checkpoint", "resume", "metrics", "heatmap", "solver");
+
+	private final List<String> base = new ArrayList<>(); //arguments shared by every run
+	private final Map<String, String[]> swept = new LinkedHashMap<>();
+	private final Map<String, String> options = new LinkedHashMap<>();
+
+	private ParameterSweep(String[] args) {
+		for(String[] o : OPTIONS)
+			options.put(o[0], o[1]);
+		for(String arg : args) {
+			int eq = arg.indexOf('=');
+			String key = eq<0 ? arg.substring(2) : arg.substring(2, eq);
+			String value = eq<0 ? "true" : arg.substring(eq+1);
+			if(!arg.startsWith("--"))
+				throw new IllegalArgumentException("Expected --key=value, got "+arg);
+			if(options.containsKey(key))
+				options.put(key, value);
+			else if(UNSUPPORTED.contains(key))
+				throw new IllegalArgumentException(key+" is not supported in a sweep");
+			else if(!LISTS.contains(key) && (value.contains(",") || isRange(value))) {
+				if(FIXED.contains(key) || key.equals("config"))
+					throw new IllegalArgumentException(key+" can't be swept");
+				swept.put(key, value.split(","));
+			} else
+				base.add(arg);
+		}
+		if(getInt("sweep.random")==0)
+			for(Map.Entry<String, String[]> e : swept.entrySet())
+				for(String v : e.getValue())
+					if(isRange(v))
+						throw new IllegalArgumentException("Ranges such as "+e.getKey()+"="+v+" need --sweep.random");
+	}
+
+	private int getInt(String option) {
+		return Integer.parseInt(options.get(option).trim());
+	}
+
+	/**
+	 * @return every combination of the swept values, or the random picks
+	 */
+	private List<Map<String, String>> configurations(SplittableRandom random) {
+		List<Map<String, String>> configs = new ArrayList<>();
+		configs.add(new LinkedHashMap<>());
+		int picks = getInt("sweep.random");
+		if(picks>0) {
+			configs.clear();
+			for(int i=0; i<picks; i++) {
+				Map<String, String> config = new LinkedHashMap<>();
+				for(Map.Entry<String, String[]> e : swept.entrySet()) {
+					String[] values = e.getValue();
+					config.put(e.getKey(), pick(values[random.nextInt(values.length)], random));
+				}
+				configs.add(config);
+			}
+			return configs;
+		}
+		for(Map.Entry<String, String[]> e : swept.entrySet()) {
+			List<Map<String, String>> next = new ArrayList<>();
+			for(Map<String, String> config : configs)
+				for(String v : e.getValue()) {
+					Map<String, String> c = new LinkedHashMap<>(config);
+					c.put(e.getKey(), v.trim());
+					next.add(c);
+				}
+			configs = next;
+		}
+		return configs;
+	}
+
+	/**
+	 * @return whether value is a range of numbers A..B, rather than a value
+	 * that happens to contain "..", such as a path
+	 */
+	private static boolean isRange(String value) {
+		int dots = value.indexOf("..");
+		if(dots<0)
+			return false;
+		try {
+			Double.parseDouble(value.substring(0, dots).trim());
+			Double.parseDouble(value.substring(dots+2).trim());
+			return true;
+		} catch(NumberFormatException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return value, or a uniformly random number in it if it is a range A..B,
+	 * an integer if both ends are
+	 */
+	private static String pick(String value, SplittableRandom random) {
+		if(!isRange(value))
+			return value.trim();
+		int dots = value.indexOf("..");
+		String a = value.substring(0, dots).trim(), b = value.substring(dots+2).trim();
+		try {
+			return Integer.toString(random.nextInt(Integer.parseInt(a), Integer.parseInt(b)+1));
+		} catch(NumberFormatException ex) {
+			double min = Double.parseDouble(a), max = Double.parseDouble(b);
+			return String.format(Locale.ROOT, "%.4g", min + random.nextDouble()*(max-min));
+		}
+	}
+
+	/**
+	 * @param seed or null to leave it to the arguments
+	 */
+	private Settings settings(Map<String, String> config, Long seed) throws IOException {
+		List<String> args = new ArrayList<>(base);
+		for(Map.Entry<String, String> e : config.entrySet())
+			args.add("--"+e.getKey()+"="+e.getValue());
+		if(seed!=null)
+			args.add("--seed="+seed);
+		args.add("--headless");
+		return Settings.parse(args.toArray(new String[0]));
+	}
+
+	/**
+	 * One run of one configuration: the time and best error after each
+	 * generation.
+	 */
+	private static final class Run {
+		final int config;
+		final long seed;
+		final List<long[]> trace = new ArrayList<>(); //ms, generation, best error
+		String reason;
+
+		Run(int config, long seed) {
+			this.config = config;
+			this.seed = seed;
+		}
+
+		long[] last() { return trace.get(trace.size()-1); }
+	}
+
+	private static Run run(Run run, Settings settings, Problem problem, MessageFamily[] families, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		Evolution evolution = new Evolution(families, problem.getWidth(), problem.getHeight(), settings.getSpecies(),
+				settings.getIndividuals(), settings.getElitist(), settings.getSeed(), pool);
+		MessageGrid.configure(evolution, settings, families, problem);
+		EvolutionListener record = e -> {
+			synchronized(run) {
+				run.trace.add(new long[] {(System.nanoTime()-start)/1000000, e.getGeneration(), e.getBest().getError()});
+			}
+		};
+		record.generationComplete(evolution);
+		evolution.addListener(record);
+		Termination termination = settings.getTermination();
+		termination.start();
+		if(settings.isAsync())
+			evolution.runIslands(termination);
+		else
+			while(!termination.isDone(evolution))
+				evolution.step();
+		run.reason = termination.getReason();
+		return run;
+	}
+
+	private void sweep() throws IOException, InterruptedException {
+		Settings first = settings(new LinkedHashMap<>(), null);
+		SplittableRandom random = new SplittableRandom(first.getSeed());
+		List<Map<String, String>> configs = configurations(random);
+		//A swept seed is part of each configuration
+		Long[] seeds = new Long[swept.containsKey("seed") ? 1 : getInt("sweep.seeds")];
+		for(int i=0; i<seeds.length && !swept.containsKey("seed"); i++)
+			seeds[i] = random.nextLong();
+		//Fail now rather than part way through
+		for(Map<String, String> config : configs)
+			settings(config, seeds[0]);
+
+		Problem problem = Problem.load(new File(first.getProblem()));
+		MessageFamily[] families = problem.getFamilies();
+		for(MessageFamily f : families)
+			f.setConnectivityPenalty(first.getConnectivityPenalty());
+		ForkJoinPool pool = new ForkJoinPool(first.getThreads());
+		int runs = getInt("sweep.runs")>0 ? getInt("sweep.runs") : Runtime.getRuntime().availableProcessors();
+		ExecutorService drivers = Executors.newFixedThreadPool(runs);
+		CompletionService<Run> done = new ExecutorCompletionService<>(drivers);
+		System.out.println(configs.size()+" configurations, "+seeds.length+" seeds each, "+runs+" at once");
+		for(int c=0; c<configs.size(); c++)
+			for(Long seed : seeds) {
+				Settings settings = settings(configs.get(c), seed);
+				Run run = new Run(c, settings.getSeed());
+				done.submit(() -> run(run, settings, problem, families, pool));
+			}
+
+		List<Run> results = new ArrayList<>();
+		try {
+			for(int i=0; i<configs.size()*seeds.length; i++) {
+				Run run = done.take().get();
+				results.add(run);
+				long[] last = run.last();
+				System.out.printf("%d/%d  config %d seed %d: %d after %d generations, %d ms, %s%n", i+1,
+						configs.size()*seeds.length, run.config, run.seed, last[2], last[1], last[0], run.reason);
+			}
+		} catch(ExecutionException ex) {
+			throw new IllegalStateException("Run failed", ex.getCause());
+		} finally {
+			drivers.shutdownNow();
+			pool.shutdown();
+		}
+		results.sort(Comparator.<Run>comparingInt(r -> r.config).thenComparingLong(r -> r.seed));
+		writeTable(new File(options.get("sweep.table")), configs, results);
+		printSummary(configs, results);
+	}
+
+	private void writeTable(File file, List<Map<String, String>> configs, List<Run> results) throws IOException {
+		try(Writer out = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8))) {
+			out.write("config");
+			for(String key : swept.keySet())
+				out.write(","+key);
+			out.write(",seed,generation,ms,best\n");
+			for(Run run : results) {
+				StringBuilder prefix = new StringBuilder().append(run.config);
+				for(String key : swept.keySet())
+					prefix.append(',').append(configs.get(run.config).get(key));
+				for(long[] t : run.trace)
+					out.write(prefix+","+run.seed+","+t[1]+","+t[0]+","+t[2]+"\n");
+			}
+		}
+		System.out.println("Wrote "+file);
+	}
+
+	/**
+	 * Prints each configuration's final error, best first.
+	 */
+	private void printSummary(List<Map<String, String>> configs, List<Run> results) {
+		double[] meanError = new double[configs.size()], meanTime = new double[configs.size()];
+		long[] minError = new long[configs.size()];
+		int[] count = new int[configs.size()];
+		Arrays.fill(minError, Long.MAX_VALUE);
+		for(Run run : results) {
+			long[] last = run.last();
+			meanError[run.config] += last[2];
+			meanTime[run.config] += last[0];
+			minError[run.config] = Math.min(minError[run.config], last[2]);
+			count[run.config]++;
+		}
+		Integer[] order = new Integer[configs.size()];
+		for(int c=0; c<order.length; c++) {
+			order[c] = c;
+			meanError[c] /= count[c];
+			meanTime[c] /= count[c];
+		}
+		Arrays.sort(order, Comparator.comparingDouble(c -> meanError[c]));
+		System.out.printf("%n%-8s %10s %8s %10s  %s%n", "config", "mean best", "min", "mean ms", "settings");
+		for(int c : order)
+			System.out.printf(Locale.ROOT, "%-8d %10.1f %8d %10.0f  %s%n", c, meanError[c], minError[c], meanTime[c], configs.get(c));
+	}
+
+	public static void printUsage() {
+		System.out.println("Usage: ParameterSweep [--key=value[,value]...]...");
+		System.out.println("Takes MessageGrid's settings, any but "+FIXED+" as a list to sweep over, "+LISTS+" being lists already, and:");
+		for(String[] o : OPTIONS)
+			System.out.printf("  --%-20s %s (default %s)%n", o[0], o[2], o[1]);
+	}
+
+	/**
+	 * @param args as for MessageGrid, see the class description
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ParameterSweep sweep;
+		try {
+			if(Arrays.asList(args).contains("--help")) {
+				printUsage();
+				return;
+			}
+			sweep = new ParameterSweep(args);
+			sweep.settings(new LinkedHashMap<>(), null);
+		} catch(IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			printUsage();
+			System.exit(1);
+			return;
+		}
+		sweep.sweep();
+	}
+
+}
@@ -1,61 +1,196 @@
 package message.grid;
 
 import java.awt.image.BufferedImage;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A single potential pattern individual for the GA.
+ *
+ * The GA writes children into its own patterns in place, so those it gives
+ * out, through Evolution, are copies it publishes after each generation. They
+ * stay as they are until it publishes the next. Copy any that must be kept.
  * @author kg249
  */
 public class Pattern implements Comparable<Pattern> {
 	
-	private static final double MUTATION = 0.05;
+	/** The default probability of each pixel being re-rolled by mutation. */
+	static final double MUTATION = 0.05;
 	
-	private final boolean[] white; //white or black pixels
+	private final long[] words; //white (1) or black (0) pixels, packed row-major 64 per word
 	private final int width;
 	private final int height;
 	
 	private int error;
 	private double fitness;
 	
-	public Pattern(int width, int height, Random rand) {
-		white = new boolean[width*height];
+	public Pattern(int width, int height, SplittableRandom rand) {
+		this(width, height);
+		randomise(rand);
+	}
+	
+	public Pattern(int width, int height) {
+		words = new long[MessageMask.words(width, height)];
 		this.width = width;
 		this.height = height;
-		
-		for(int i=0; i<white.length; i++) {
-			white[i] = rand.nextBoolean();
-		}
 	}
 	
-	public Pattern(int width, int height) {
-		white = new boolean[width*height];
+	/**
+	 * A pattern with the given pixels and already known error.
+	 */
+	Pattern(int width, int height, long[] words, int error) {
+		if(words.length!=MessageMask.words(width, height))
+			throw new IllegalArgumentException("Expected "+MessageMask.words(width, height)+" words, got "+words.length);
+		this.words = words;
 		this.width = width;
 		this.height = height;
+		setError(error);
+	}
+	
+	/**
+	 * A copy of p, including its error.
+	 */
+	Pattern(Pattern p) {
+		words = p.words.clone();
+		width = p.width;
+		height = p.height;
+		error = p.error;
+		fitness = p.fitness;
+	}
+	
+	/**
+	 * Makes this a copy of p, including its error. They must be the same size.
+	 */
+	void set(Pattern p) {
+		System.arraycopy(p.words, 0, words, 0, words.length);
+		error = p.error;
+		fitness = p.fitness;
+	}
+	
+	/**
+	 * Sets every pixel at random. The error is not updated.
+	 */
+	void randomise(SplittableRandom rand) {
+		for(int i=0; i<words.length; i++)
+			words[i] = rand.nextLong();
+		clearTail();
+	}
+	
+	/**
+	 * Uniform crossover of a and b, taking 64 pixels at a time through a random
+	 * mask, followed by mutation.
+	 */
+	public Pattern(Pattern a, Pattern b, SplittableRandom rand) {
+		this(a);
+		uniform(b, rand);
+		mutate(rand);
+	}
+	
+	/**
+	 * Replaces each pixel with the pixel from other with probability 1/2.
+	 */
+	void uniform(Pattern other, SplittableRandom rand) {
+		for(int i=0; i<words.length; i++) {
+			long mask = rand.nextLong();
+			words[i] = (words[i] & mask) | (other.words[i] & ~mask);
+		}
+	}
+	
+	/**
+	 * Replaces pixels start (inclusive) to end (exclusive) in row-major order
+	 * with those of other.
+	 */
+	void copyRange(Pattern other, int start, int end) {
+		if(start>=end) return;
+		int first = start>>>6, last = (end-1)>>>6;
+		for(int w=first; w<=last; w++) {
+			long mask = -1L;
+			if(w==first) mask &= -1L << start;
+			if(w==last) mask &= -1L >>> (63 - ((end-1) & 63));
+			words[w] = (words[w] & ~mask) | (other.words[w] & mask);
+		}
 	}
 	
-	public Pattern(Pattern a, Pattern b, Random rand) {
-		white = new boolean[a.white.length];
-		this.width = a.width;
-		this.height = a.height;
-		
-		for(int i=0; i<white.length; i++) {
-			if(rand.nextDouble()<MUTATION)
-				white[i] = rand.nextBoolean();
+	void mutate(SplittableRandom rand) {
+		mutate(rand, MUTATION);
+	}
+	
+	/**
+	 * Each pixel is re-rolled with probability rate. Rather than drawing per
+	 * pixel, the gap to the next re-rolled pixel is drawn from the matching
+	 * geometric distribution.
+	 */
+	void mutate(SplittableRandom rand, double rate) {
+		double logKeep = Math.log(1.0-rate);
+		int size = width*height;
+		int i = -1;
+		while(true) {
+			i += 1 + (int)(Math.log(1.0-rand.nextDouble()) / logKeep);
+			if(i<0 || i>=size) break; //i<0 on overflow of a huge gap
+			if(rand.nextBoolean())
+				words[i>>>6] |= 1L<<i;
 			else
-				white[i] = (rand.nextBoolean() ? a : b).white[i];
+				words[i>>>6] &= ~(1L<<i);
 		}
 	}
 	
+	/** Keeps the unused bits of the final word zero so words compare cleanly. */
+	private void clearTail() {
+		int used = (width*height) & 63;
+		if(used!=0)
+			words[words.length-1] &= -1L >>> (64-used);
+	}
+	
 	public int getWidth() { return width; }
 	public int getHeight() { return height; }
 	
-	public boolean isWhite(int x, int y) { return white[y*width+x]; }
+	public boolean isWhite(int x, int y) {
+		int i = y*width+x;
+		return (words[i>>>6] & 1L<<i) != 0;
+	}
+	
+	boolean isWhite(int i) { return (words[i>>>6] & 1L<<i) != 0; }
+	
+	/** Inverts pixel i. The error is not updated. */
+	void flip(int i) { words[i>>>6] ^= 1L<<i; }
+	
+	/**
+	 * @return the pixels packed row-major, 64 per word. Must not be modified.
+	 */
+	long[] words() { return words; }
+	
+	/**
+	 * @return a 64-bit hash of the pixels
+	 */
+	long hash() {
+		long h = width*31L + height;
+		for(long w : words)
+			h = (h ^ w) * 0x9E3779B97F4A7C15L;
+		h ^= h>>>31;
+		h *= 0xBF58476D1CE4E5B9L;
+		return h ^ h>>>29;
+	}
 	
 	public void computeError(MessageFamily[] families) {
-		error = 0;
-		for(MessageFamily mf : families)
-			error += mf.getMinimumError(this);
+		computeError(families, null);
+	}
+
+	/**
+	 * @param hints per family, from MessageFamily.getHints for a similar
+	 * pattern, or null
+	 */
+	public void computeError(MessageFamily[] families, int[][] hints) {
+		int err = 0;
+		for(int f=0; f<families.length; f++)
+			err += families[f].getMinimumError(this, hints==null ? null : hints[f]);
+		setError(err);
+	}
+	
+	/**
+	 * Sets an error already known to equal that of computeError, e.g. one
+	 * tracked incrementally.
+	 */
+	void setError(int error) {
+		this.error = error;
 		fitness = 1.0 / (error+1.0);
 	}
 
@@ -63,6 +198,44 @@ public class Pattern implements Comparable<Pattern> {
 	public int compareTo(Pattern o) {
 		return Integer.compare(error, o.error);
 	}
+	
+	/** Below this length, runs are insertion sorted before merging. */
+	private static final int RUN = 16;
+	
+	/**
+	 * Sorts best first, in the same order as Arrays.sort, but without
+	 * allocating: a stable merge sort through scratch, which must be at least
+	 * as long as patterns.
+	 */
+	static void sort(Pattern[] patterns, Pattern[] scratch) {
+		int n = patterns.length;
+		for(int lo=0; lo<n; lo+=RUN) {
+			int hi = Math.min(lo+RUN, n);
+			for(int i=lo+1; i<hi; i++) {
+				Pattern p = patterns[i];
+				int j = i-1;
+				for(; j>=lo && patterns[j].error>p.error; j--)
+					patterns[j+1] = patterns[j];
+				patterns[j+1] = p;
+			}
+		}
+		Pattern[] from = patterns, to = scratch;
+		for(int run=RUN; run<n; run*=2) {
+			for(int lo=0; lo<n; lo+=2*run) {
+				int mid = Math.min(lo+run, n), hi = Math.min(lo+2*run, n);
+				int i = lo, j = mid, k = lo;
+				while(i<mid && j<hi)
+					to[k++] = from[j].error<from[i].error ? from[j++] : from[i++];
+				while(i<mid) to[k++] = from[i++];
+				while(j<hi) to[k++] = from[j++];
+			}
+			Pattern[] t = from;
+			from = to;
+			to = t;
+		}
+		if(from!=patterns)
+			System.arraycopy(from, 0, patterns, 0, n);
+	}
 
 	public int getError() {
 		return error;
@@ -73,10 +246,10 @@ public class Pattern implements Comparable<Pattern> {
 	}
 	
 	public BufferedImage toImage() {
-		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		for(int x=0; x<width; x++)
-			for(int y=0; y<height; y++)
-				img.setRGB(x, y, isWhite(x,y)?0xFFFFFF:0x000000);
+		BufferedImage img = ImageExport.create(width, height);
+		int[] pixels = ImageExport.pixels(img);
+		for(int i=0; i<pixels.length; i++)
+			pixels[i] = isWhite(i)?0xFFFFFFFF:0xFF000000;
 		return img;
 	}
 	
@@ -0,0 +1,314 @@
+package message.grid;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * A problem definition: the grid size, the images and the message families to
+ * hide in the grid. Read from a text file such as:
+ * <pre>
+ * # comment
+ * grid 54 22
+ * image father father.png
+ * image courage courage.png
+ * family Father Courage
+ * place father -1..4 0
+ * place courage 0 11
+ * </pre>
+ * Each family is every combination of the placements listed after it, where
+ * each placement puts an image with its top left corner at any x and y within
+ * the given ranges. Image paths are relative to the problem file.
+ *
+ * Decoded images are kept as tri-colour masks in a binary cache next to the
+ * problem file, which is rebuilt whenever it is older than the problem file or
+ * any of its images.
+ *
+ * @author kg249
+ */
+public class Problem {
+
+	private static final int MAGIC = 0x4D474943; //MGIC
+	private static final int VERSION = 1;
+
+	private final File file;
+	private int width;
+	private int height;
+	private final Map<String, File> imageFiles = new LinkedHashMap<>();
+	private final Map<String, TriImage> images = new LinkedHashMap<>();
+	private final List<String> names = new ArrayList<>();
+	private final List<List<Placement>> placements = new ArrayList<>();
+
+	private Problem(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the problem, from the image cache if it is up to date, otherwise
+	 * decoding the images and rewriting the cache.
+	 */
+	public static Problem load(File file) throws IOException {
+		Problem problem = new Problem(file);
+		problem.parse();
+		File cache = getCacheFile(file);
+		if(!problem.isFresh(cache) || !problem.readCache(cache)) {
+			problem.decodeImages();
+			problem.writeCache(cache);
+		}
+		return problem;
+	}
+
+	/**
+	 * Decodes the images and writes the cache, whether or not it is up to date.
+	 */
+	public static void compile(File file) throws IOException {
+		Problem problem = new Problem(file);
+		problem.parse();
+		problem.decodeImages();
+		problem.writeCache(getCacheFile(file));
+	}
+
+	public static File getCacheFile(File file) {
+		return new File(file.getPath()+".cache");
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	public String[] getNames() {
+		return names.toArray(new String[0]);
+	}
+
+	/**
+	 * @return a new set of families. Those whose images can't overlap are
+	 * SweepFamilies, the rest contain every combination as a separate message.
+	 */
+	public MessageFamily[] getFamilies() {
+		MessageFamily[] families = new MessageFamily[placements.size()];
+		for(int f=0; f<families.length; f++) {
+			List<Placement> family = placements.get(f);
+			SweepFamily sweep = new SweepFamily();
+			boolean separate = true;
+			for(Placement p : family) {
+				separate = sweep.canAdd(images.get(p.image), p.minX, p.maxX, p.minY, p.maxY);
+				if(!separate) break;
+				sweep.addImage(images.get(p.image), p.minX, p.maxX, p.minY, p.maxY);
+			}
+			families[f] = separate ? sweep : getCombinations(f);
+		}
+		return families;
+	}
+
+	/**
+	 * @return family f with every combination as a separate message, however
+	 * its images are placed
+	 */
+	MessageFamily getCombinations(int f) {
+		List<Placement> family = placements.get(f);
+		MessageFamily all = new MessageFamily();
+		addCombinations(all, family, 0, new int[2*family.size()]);
+		return all;
+	}
+
+	/**
+	 * Adds every combination of placements[from..] on top of the offsets
+	 * chosen so far, with the first placement's offset outermost.
+	 */
+	private void addCombinations(MessageFamily family, List<Placement> placements, int from, int[] offsets) {
+		if(from==placements.size()) {
+			Message m = new Message();
+			for(int i=0; i<placements.size(); i++)
+				m.addImage(offsets[2*i], offsets[2*i+1], images.get(placements.get(i).image));
+			family.add(m);
+			return;
+		}
+		Placement p = placements.get(from);
+		for(int y=p.minY; y<=p.maxY; y++)
+			for(int x=p.minX; x<=p.maxX; x++) {
+				offsets[2*from] = x;
+				offsets[2*from+1] = y;
+				addCombinations(family, placements, from+1, offsets);
+			}
+	}
+
+	private void parse() throws IOException {
+		List<Placement> family = null;
+		try(BufferedReader in = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+			String line;
+			int number = 0;
+			while((line = in.readLine())!=null) {
+				number++;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				String[] parts = line.split("\\s+", 3);
+				try {
+					switch(parts[0]) {
+						case "grid":
+							width = Integer.parseInt(parts[1]);
+							height = Integer.parseInt(parts[2]);
+							break;
+						case "image": {
+							File img = new File(parts[2]);
+							if(!img.isAbsolute())
+								img = new File(file.getAbsoluteFile().getParentFile(), parts[2]);
+							if(imageFiles.put(parts[1], img)!=null)
+								throw new IllegalArgumentException("Duplicate image "+parts[1]);
+							break;
+						}
+						case "family":
+							names.add(line.substring(6).trim());
+							family = new ArrayList<>();
+							placements.add(family);
+							break;
+						case "place": {
+							if(family==null)
+								throw new IllegalArgumentException("place before any family");
+							String[] args = line.split("\\s+");
+							if(args.length!=4)
+								throw new IllegalArgumentException("Expected place IMAGE X Y");
+							if(!imageFiles.containsKey(args[1]))
+								throw new IllegalArgumentException("Unknown image "+args[1]);
+							int[] x = range(args[2]), y = range(args[3]);
+							family.add(new Placement(args[1], x[0], x[1], y[0], y[1]));
+							break;
+						}
+						default:
+							throw new IllegalArgumentException("Unknown directive "+parts[0]);
+					}
+				} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+					throw new IOException(file+":"+number+": "+ex.getMessage(), ex);
+				}
+			}
+		}
+		if(width<=0 || height<=0)
+			throw new IOException(file+": missing grid size");
+		if(placements.isEmpty())
+			throw new IOException(file+": no families");
+		for(int f=0; f<placements.size(); f++)
+			if(placements.get(f).isEmpty())
+				throw new IOException(file+": family "+names.get(f)+" has no placements");
+	}
+
+	/**
+	 * @param range N or MIN..MAX
+	 */
+	private static int[] range(String range) {
+		int dots = range.indexOf("..");
+		if(dots<0) {
+			int n = Integer.parseInt(range);
+			return new int[]{n, n};
+		}
+		int min = Integer.parseInt(range.substring(0, dots)), max = Integer.parseInt(range.substring(dots+2));
+		if(min>max)
+			throw new IllegalArgumentException("Empty range "+range);
+		return new int[]{min, max};
+	}
+
+	private boolean isFresh(File cache) {
+		if(!cache.isFile()) return false;
+		long built = cache.lastModified();
+		if(file.lastModified()>built) return false;
+		for(File img : imageFiles.values())
+			if(img.lastModified()>built)
+				return false;
+		return true;
+	}
+
+	private void decodeImages() throws IOException {
+		images.clear();
+		for(Map.Entry<String, File> e : imageFiles.entrySet()) {
+			if(!e.getValue().isFile())
+				throw new IOException("Image "+e.getValue()+" not found");
+			images.put(e.getKey(), TriImage.of(ImageIO.read(e.getValue())));
+		}
+	}
+
+	/**
+	 * Cache format, big-endian:
+	 * <pre>
+	 * int MAGIC, VERSION, images
+	 * per image:
+	 *   short name length, name as UTF-8
+	 *   int   width, height
+	 *   long  opaque[(width*height+63)/64], white[...]
+	 * </pre>
+	 */
+	private void writeCache(File cache) throws IOException {
+		int size = 3*Integer.BYTES;
+		for(Map.Entry<String, TriImage> e : images.entrySet())
+			size += Short.BYTES + e.getKey().getBytes(StandardCharsets.UTF_8).length + 2*Integer.BYTES + 2*e.getValue().opaqueWords().length*Long.BYTES;
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(images.size());
+		for(Map.Entry<String, TriImage> e : images.entrySet()) {
+			byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+			TriImage img = e.getValue();
+			buf.putShort((short)name.length).put(name);
+			buf.putInt(img.getWidth()).putInt(img.getHeight());
+			for(long w : img.opaqueWords()) buf.putLong(w);
+			for(long w : img.whiteWords()) buf.putLong(w);
+		}
+		buf.flip();
+
+		File tmp = new File(cache.getPath()+".tmp");
+		try(FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buf.hasRemaining())
+				out.write(buf);
+		}
+		Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return false if the cache is unreadable or doesn't hold every image
+	 */
+	private boolean readCache(File cache) {
+		images.clear();
+		try(FileChannel in = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if(buf.getInt()!=MAGIC || buf.getInt()!=VERSION)
+				return false;
+			int count = buf.getInt();
+			for(int i=0; i<count; i++) {
+				byte[] name = new byte[buf.getShort()];
+				buf.get(name);
+				int w = buf.getInt(), h = buf.getInt();
+				long[] opaque = new long[MessageMask.words(w, h)], white = new long[opaque.length];
+				LongBuffer lb = buf.asLongBuffer();
+				lb.get(opaque).get(white);
+				buf.position(buf.position() + 2*opaque.length*Long.BYTES);
+				images.put(new String(name, StandardCharsets.UTF_8), new TriImage(w, h, opaque, white));
+			}
+		} catch (IOException | RuntimeException ex) {
+			return false;
+		}
+		return images.keySet().containsAll(imageFiles.keySet());
+	}
+
+	private static class Placement {
+
+		private final String image;
+		private final int minX, maxX, minY, maxY;
+
+		Placement(String image, int minX, int maxX, int minY, int maxY) {
+			this.image = image;
+			this.minX = minX;
+			this.maxX = maxX;
+			this.minY = minY;
+			this.maxY = maxY;
+		}
+	}
+
+}
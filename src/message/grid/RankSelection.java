@@ -0,0 +1,43 @@
+package message.grid;
+
+/**
+ * Linear ranking selection. The chance of being picked depends only on rank,
+ * falling linearly from pressure/n for the best to (2-pressure)/n for the
+ * worst, so a few very fit individuals can't take over a species. The weights
+ * only depend on the population size, so their prefix sums are kept between
+ * generations.
+ *
+ * @author kg249
+ */
+public class RankSelection implements Selection {
+
+	private final double pressure;
+	private volatile double[] cumulative = new double[0];
+
+	/**
+	 * @param pressure between 1 (uniform) and 2 (the worst is never picked)
+	 */
+	public RankSelection(double pressure) {
+		if(pressure<1.0 || pressure>2.0)
+			throw new IllegalArgumentException("Rank pressure must be between 1 and 2");
+		this.pressure = pressure;
+	}
+
+	@Override
+	public Sampler prepare(Pattern[] patterns) {
+		double[] c = cumulative;
+		int n = patterns.length;
+		if(c.length!=n) {
+			c = new double[n];
+			double sum = 0.0;
+			for(int i=0; i<n; i++) {
+				sum += n==1 ? 1.0 : pressure - 2.0*(pressure-1.0)*i/(n-1);
+				c[i] = sum;
+			}
+			cumulative = c;
+		}
+		double[] table = c;
+		return random -> patterns[RouletteSelection.find(table, random.nextDouble()*table[n-1])];
+	}
+
+}
@@ -0,0 +1,58 @@
+package message.grid;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Fitness proportionate selection. Each draw is a binary search over the
+ * prefix sums of the fitnesses, so O(log n).
+ *
+ * @author kg249
+ */
+public class RouletteSelection implements Selection {
+
+	@Override
+	public Sampler prepare(Pattern[] patterns) {
+		return prepare(patterns, null);
+	}
+
+	@Override
+	public Sampler prepare(Pattern[] patterns, Sampler previous) {
+		Table t = previous instanceof Table && ((Table)previous).cumulative.length==patterns.length
+				? (Table)previous : new Table(patterns.length);
+		double sum = 0.0;
+		for(int i=0; i<patterns.length; i++) {
+			sum += patterns[i].getFitness();
+			t.cumulative[i] = sum;
+		}
+		t.patterns = patterns;
+		t.total = sum;
+		return t;
+	}
+
+	private static final class Table implements Sampler {
+
+		private final double[] cumulative;
+		private Pattern[] patterns;
+		private double total;
+
+		Table(int n) {
+			cumulative = new double[n];
+		}
+
+		@Override
+		public Pattern select(SplittableRandom random) {
+			return patterns[find(cumulative, random.nextDouble()*total)];
+		}
+	}
+
+	/**
+	 * @return the first index whose cumulative weight reaches target
+	 */
+	static int find(double[] cumulative, double target) {
+		int i = Arrays.binarySearch(cumulative, target);
+		if(i<0) i = -i-1;
+		return Math.min(i, cumulative.length-1);
+	}
+
+}
@@ -0,0 +1,32 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses parents from a species. Any per-generation work, such as building
+ * tables, is done once in prepare so that each draw is cheap.
+ *
+ * @author kg249
+ */
+public interface Selection {
+
+	/**
+	 * @param patterns the current population, sorted best first
+	 */
+	Sampler prepare(Pattern[] patterns);
+
+	/**
+	 * As prepare, but may reuse the tables of previous, a sampler this returned
+	 * for an earlier population that is no longer needed, or null. The GA
+	 * passes each species' last sampler so that it doesn't allocate new tables
+	 * every generation.
+	 */
+	default Sampler prepare(Pattern[] patterns, Sampler previous) {
+		return prepare(patterns);
+	}
+
+	interface Sampler {
+		Pattern select(SplittableRandom random);
+	}
+
+}
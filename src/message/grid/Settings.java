@@ -0,0 +1,246 @@
+package message.grid;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Run parameters. Read from an optional properties file given by
+ * --config=FILE, then overridden by any --key=value arguments. Every key has a
+ * default, so no arguments at all gives the standard run.
+ *
+ * @author kg249
+ */
+public class Settings {
+
+	private static final String[][] KEYS = {
+		{"problem", "messagegrid.problem", "problem definition file"},
+		{"compile", "false", "rebuild the problem's image cache, then exit"},
+		{"solver", "ga", "ga, alternating, or hybrid: the GA then the alternating solver from each species' best"},
+		{"solver.starts", "64", "random starts for the alternating solver"},
+		{"solver.nodes", "0", "branch-and-bound nodes after the alternating solver, 0 to skip"},
+		{"generations", "10", "number of generations, including the first, 0 for no limit"},
+		{"time", "0", "wall-clock budget in seconds, 0 for none"},
+		{"target", null, "stop once the best error is at most this"},
+		{"stagnation", "0", "stop after this many generations without improvement, 0 for never"},
+		{"individuals", "100", "individuals per species"},
+		{"species", "15", "number of species"},
+		{"elitist", "5", "individuals per species carried over unchanged"},
+		{"seed", null, "random seed, random if not given"},
+		{"mutation", "0.05", "probability of each pixel being re-rolled"},
+		{"mutation.adaptive", "false", "adapt each species' mutation rate to its progress"},
+		{"restart", "0", "restart a species after this many generations without improvement, 0 for never"},
+		{"selection", "roulette", "parent selection: roulette, alias, tournament or rank"},
+		{"tournament.size", "3", "individuals per tournament"},
+		{"rank.pressure", "1.5", "rank selection pressure, from 1 (uniform) to 2"},
+		{"crossover", "uniform", "crossover: uniform, block or rows"},
+		{"migration", "none", "island topology: none, ring, random or full"},
+		{"migration.interval", "5", "generations between migrations"},
+		{"migration.size", "2", "individuals sent per migration"},
+		{"async", "false", "evolve species as independent islands, without waiting for each other"},
+		{"refine.steps", "0", "local search steps per elite per generation, 0 to disable, e.g. 2000"},
+		{"refine.temperature", "2.0", "local search starting temperature"},
+		{"connectivity.penalty", "0", "error per decoder pixel not connected to its frame"},
+		{"evaluator", "scalar", "how children are scored: scalar, one at a time, or batch, 64 at a time"},
+		{"cache.size", "0", "fitness cache entries, 0 to disable, e.g. 65536"},
+		{"checkpoint", null, "file to checkpoint the run to"},
+		{"checkpoint.interval", "5", "minimum seconds between checkpoints"},
+		{"resume", null, "checkpoint file to resume a run from"},
+		{"threads", "0", "worker threads, 0 for one per core"},
+		{"output", "output", "directory to write images to"},
+		{"scale", "4", "pixels per grid cell in written images"},
+		{"vector", "svg", "vector formats to also write cut and engrave files in: svg, dxf, svg,dxf or none"},
+		{"vector.cell", "1", "size of a grid cell in vector files, in mm"},
+		{"metrics", null, "file to stream per-generation metrics to, as .csv or .json"},
+		{"heatmap", null, "directory to write each species' per-pixel error to, as PNG and CSV"},
+		{"headless", "false", "run without any UI"},
+		{"fps", "10", "maximum UI refresh rate"},
+	};
+
+	private final Properties properties;
+
+	private Settings(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * @throws IllegalArgumentException on an unknown key or malformed argument
+	 */
+	public static Settings parse(String[] args) throws IOException {
+		Properties defaults = new Properties();
+		for(String[] key : KEYS)
+			if(key[1]!=null)
+				defaults.setProperty(key[0], key[1]);
+		Properties properties = new Properties(defaults);
+
+		for(String arg : args) {
+			if(arg.startsWith("--config=")) {
+				try(Reader in = new FileReader(arg.substring(9))) {
+					properties.load(in);
+				}
+			}
+		}
+		for(String arg : args) {
+			if(arg.equals("--help")) {
+				printUsage();
+				System.exit(0);
+			}
+			int eq = arg.indexOf('=');
+			if(!arg.startsWith("--"))
+				throw new IllegalArgumentException("Expected --key=value, got "+arg);
+			if(eq<0) //bare flags such as --headless
+				properties.setProperty(arg.substring(2), "true");
+			else if(!arg.startsWith("--config="))
+				properties.setProperty(arg.substring(2, eq), arg.substring(eq+1));
+		}
+
+		for(String key : properties.stringPropertyNames()) {
+			boolean known = false;
+			for(String[] k : KEYS)
+				known |= k[0].equals(key);
+			if(!known)
+				throw new IllegalArgumentException("Unknown setting "+key);
+		}
+		if(properties.getProperty("seed")==null)
+			properties.setProperty("seed", Long.toString(new Random().nextLong()));
+		Settings settings = new Settings(properties);
+		//Fail now rather than after loading everything
+		settings.getSelection();
+		settings.getCrossover();
+		settings.getMigration();
+		settings.getAdaptation();
+		settings.isBatchEvaluator();
+		settings.getSolver();
+		settings.getVectorFormats();
+		settings.getTermination();
+		return settings;
+	}
+
+	public static void printUsage() {
+		System.out.println("Usage: MessageGrid [--config=FILE] [--key=value]...");
+		for(String[] key : KEYS)
+			System.out.printf("  --%-20s %s%s%n", key[0], key[2], key[1]==null ? "" : " (default "+key[1]+")");
+	}
+
+	private int getInt(String key) {
+		return Integer.parseInt(properties.getProperty(key).trim());
+	}
+
+	public int getGenerations() { return getInt("generations"); }
+	public int getIndividuals() { return getInt("individuals"); }
+	public int getSpecies() { return getInt("species"); }
+	public int getElitist() { return getInt("elitist"); }
+	public long getSeed() { return Long.parseLong(properties.getProperty("seed").trim()); }
+	public int getRefineSteps() { return getInt("refine.steps"); }
+	public double getRefineTemperature() { return Double.parseDouble(properties.getProperty("refine.temperature").trim()); }
+	public int getConnectivityPenalty() { return getInt("connectivity.penalty"); }
+	public int getCacheSize() { return getInt("cache.size"); }
+	public int getFrameRate() { return getInt("fps"); }
+	public String getCheckpoint() { return properties.getProperty("checkpoint"); }
+	public double getCheckpointInterval() { return Double.parseDouble(properties.getProperty("checkpoint.interval").trim()); }
+	public String getResume() { return properties.getProperty("resume"); }
+	public String getMetrics() { return properties.getProperty("metrics"); }
+	public String getHeatmap() { return properties.getProperty("heatmap"); }
+	public String getOutput() { return properties.getProperty("output"); }
+	public int getScale() { return getInt("scale"); }
+	public double getVectorCell() { return Double.parseDouble(properties.getProperty("vector.cell").trim()); }
+	public String getProblem() { return properties.getProperty("problem"); }
+	public int getStarts() { return getInt("solver.starts"); }
+	public long getNodeLimit() { return Long.parseLong(properties.getProperty("solver.nodes").trim()); }
+
+	public boolean isCompile() {
+		return Boolean.parseBoolean(properties.getProperty("compile").trim());
+	}
+
+	public Termination getTermination() {
+		String target = properties.getProperty("target");
+		return new Termination(getInt("generations"), Double.parseDouble(properties.getProperty("time").trim()),
+				target==null ? -1 : Integer.parseInt(target.trim()), getInt("stagnation"));
+	}
+
+	public Adaptation getAdaptation() {
+		return new Adaptation(Double.parseDouble(properties.getProperty("mutation").trim()),
+				Boolean.parseBoolean(properties.getProperty("mutation.adaptive").trim()), getInt("restart"));
+	}
+
+	/**
+	 * @return ga, alternating or hybrid
+	 */
+	public String getSolver() {
+		String solver = properties.getProperty("solver").trim();
+		switch(solver) {
+			case "ga": case "alternating": case "hybrid": return solver;
+			default: throw new IllegalArgumentException("Unknown solver "+solver);
+		}
+	}
+
+	/**
+	 * @return some of {@link VectorExport#FORMATS}, none for none
+	 */
+	public String[] getVectorFormats() {
+		String vector = properties.getProperty("vector").trim();
+		if(vector.equals("none"))
+			return new String[0];
+		String[] formats = vector.split("\\s*,\\s*");
+		for(String f : formats)
+			if(!VectorExport.FORMATS.contains(f))
+				throw new IllegalArgumentException("Unknown vector format "+f);
+		return formats;
+	}
+
+	public boolean isBatchEvaluator() {
+		String evaluator = properties.getProperty("evaluator").trim();
+		switch(evaluator) {
+			case "scalar": return false;
+			case "batch": return true;
+			default: throw new IllegalArgumentException("Unknown evaluator "+evaluator);
+		}
+	}
+
+	public Selection getSelection() {
+		String selection = properties.getProperty("selection").trim();
+		switch(selection) {
+			case "roulette": return new RouletteSelection();
+			case "alias": return new AliasSelection();
+			case "tournament": return new TournamentSelection(getInt("tournament.size"));
+			case "rank": return new RankSelection(Double.parseDouble(properties.getProperty("rank.pressure").trim()));
+			default: throw new IllegalArgumentException("Unknown selection "+selection);
+		}
+	}
+	
+	public Crossover getCrossover() {
+		String crossover = properties.getProperty("crossover").trim();
+		switch(crossover) {
+			case "uniform": return new UniformCrossover();
+			case "block": return new BlockCrossover(false);
+			case "rows": return new BlockCrossover(true);
+			default: throw new IllegalArgumentException("Unknown crossover "+crossover);
+		}
+	}
+	
+	/**
+	 * @return the migration settings, or null for no migration
+	 */
+	public Migration getMigration() {
+		String topology = properties.getProperty("migration").trim();
+		if(topology.equals("none"))
+			return null;
+		return new Migration(Migration.Topology.valueOf(topology.toUpperCase()), getInt("migration.interval"), getInt("migration.size"));
+	}
+	
+	public boolean isAsync() {
+		return Boolean.parseBoolean(properties.getProperty("async").trim());
+	}
+	
+	public int getThreads() {
+		int threads = getInt("threads");
+		return threads>0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	public boolean isHeadless() {
+		return Boolean.parseBoolean(properties.getProperty("headless").trim());
+	}
+
+}
@@ -0,0 +1,239 @@
+package message.grid;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A sub-population of the GA. Each species owns its own random stream, derived
+ * from the run seed, so that its evolution does not depend on which thread
+ * runs it or on how far the other species have got.
+ *
+ * When running as islands, species may be at different generations, and are
+ * sent migrants by other species through their lock-free inbox.
+ *
+ * Each species owns two populations of patterns, the current one and a spare
+ * that the next generation is written into, after which they swap, so nothing
+ * is allocated per child. The old individuals are overwritten as soon as the
+ * species starts on its next generation, or takes in migrants, so other
+ * threads read them through copyTo, which retries if it races a swap.
+ *
+ * @author kg249
+ */
+public class Species implements Comparable<Species> {
+
+	private final long seed;
+	private volatile Pattern[] individuals;
+	private Pattern[] spare; //patterns to write the next generation into
+	private Pattern[] scratch; //for sorting
+	private Selection.Sampler sampler; //last used, for its tables
+	private volatile int generation;
+	private volatile int swaps; //odd while swapping, so readers can tell they raced one
+	private volatile GenerationStats stats;
+	private double mutation; //0 until adapted
+	private int stagnation;
+	private final Queue<Pattern> inbox = new ConcurrentLinkedQueue<>();
+
+	public Species(long seed, Pattern[] individuals) {
+		this(seed, individuals, 0);
+	}
+
+	public Species(long seed, Pattern[] individuals, int generation) {
+		this(seed, individuals, generation, 0, 0);
+	}
+
+	Species(long seed, Pattern[] individuals, int generation, double mutation, int stagnation) {
+		this.seed = seed;
+		this.individuals = individuals;
+		this.generation = generation;
+		this.mutation = mutation;
+		this.stagnation = stagnation;
+	}
+
+	public long getSeed() { return seed; }
+
+	/**
+	 * @return the random stream for the given generation. Each generation gets
+	 * a fresh stream, so a species can be resumed from any generation knowing
+	 * only its seed.
+	 */
+	public SplittableRandom getRandom(int generation) {
+		return new SplittableRandom(seed + generation*0x9E3779B97F4A7C15L).split();
+	}
+
+	/**
+	 * @return a stream for choosing where to send migrants, independent of the
+	 * one used for breeding
+	 */
+	SplittableRandom getMigrationRandom(int generation) {
+		return new SplittableRandom(~seed + generation*0x9E3779B97F4A7C15L).split();
+	}
+
+	/**
+	 * @return the individuals, best first. Must not be modified, and only
+	 * valid on the thread evolving the species, or while it is not evolving.
+	 */
+	public Pattern[] getIndividuals() { return individuals; }
+
+	/**
+	 * @return patterns, none of them current individuals, to write the next
+	 * generation into before passing it to swap
+	 */
+	Pattern[] getSpare() {
+		Pattern[] current = individuals;
+		if(spare==null || spare.length!=current.length) {
+			spare = new Pattern[current.length];
+			for(int i=0; i<spare.length; i++)
+				spare[i] = new Pattern(current[0].getWidth(), current[0].getHeight());
+		}
+		return spare;
+	}
+
+	/**
+	 * Makes next, from getSpare, the individuals, and the old individuals the
+	 * spare.
+	 */
+	void swap(Pattern[] next) {
+		swap(next, generation, stats);
+	}
+
+	/**
+	 * As swap, also setting the generation and stats that go with next, so
+	 * that copyTo sees them together.
+	 */
+	void swap(Pattern[] next, int generation, GenerationStats stats) {
+		int s = swaps;
+		swaps = s+1;
+		spare = individuals;
+		individuals = next;
+		this.generation = generation;
+		this.stats = stats;
+		swaps = s+2;
+		VarHandle.storeStoreFence(); //before the old individuals are overwritten
+	}
+
+	/**
+	 * @return a copy of the species as it is now, to keep up to date with
+	 * copyTo
+	 */
+	Species copy() {
+		Pattern[] current = individuals;
+		Pattern[] patterns = new Pattern[current.length];
+		for(int i=0; i<patterns.length; i++)
+			patterns[i] = new Pattern(current[0].getWidth(), current[0].getHeight());
+		Species copy = new Species(seed, patterns);
+		copyTo(copy);
+		return copy;
+	}
+
+	/**
+	 * Copies the individuals, generation, stats and adapted state into copy,
+	 * which must come from copy. Safe while the species is evolving on another
+	 * thread: the copy is taken again if a swap happens meanwhile.
+	 */
+	void copyTo(Species copy) {
+		int s;
+		do {
+			s = swaps;
+			Pattern[] current = individuals;
+			for(int i=0; i<current.length; i++)
+				copy.individuals[i].set(current[i]);
+			copy.generation = generation;
+			copy.stats = stats;
+			copy.mutation = mutation;
+			copy.stagnation = stagnation;
+			VarHandle.loadLoadFence(); //the copy is read before swaps is checked
+		} while((s&1)!=0 || swaps!=s);
+	}
+
+	/**
+	 * Sorts patterns, no more than there are individuals, best first without
+	 * allocating.
+	 */
+	void sort(Pattern[] patterns) {
+		Pattern.sort(patterns, getScratch());
+	}
+
+	/**
+	 * @return space for as many patterns as individuals, shared with sort
+	 */
+	Pattern[] getScratch() {
+		if(scratch==null || scratch.length<individuals.length)
+			scratch = new Pattern[individuals.length];
+		return scratch;
+	}
+
+	Selection.Sampler getSampler() { return sampler; }
+
+	void setSampler(Selection.Sampler sampler) { this.sampler = sampler; }
+
+	/**
+	 * @return the generation the individuals belong to
+	 */
+	public int getGeneration() { return generation; }
+
+	public Pattern getBest() { return individuals[0]; }
+
+	/**
+	 * @return the species' own mutation rate, or 0 if it has never been adapted.
+	 * Written while evolving, before the generation is set.
+	 */
+	double getMutation() { return mutation; }
+
+	void setMutation(double mutation) { this.mutation = mutation; }
+
+	/**
+	 * @return the number of generations since the best individual improved
+	 */
+	int getStagnation() { return stagnation; }
+
+	void setStagnation(int stagnation) { this.stagnation = stagnation; }
+
+	/**
+	 * @return timings of the species' latest generation, or null if it hasn't
+	 * bred one since being created or resumed
+	 */
+	public GenerationStats getStats() { return stats; }
+
+	void setStats(GenerationStats stats) { this.stats = stats; }
+
+	/**
+	 * @param migrant a pattern no other species holds
+	 */
+	void send(Pattern migrant) {
+		inbox.add(migrant);
+	}
+
+	/**
+	 * Replaces the worst individuals with any migrants waiting in the inbox,
+	 * where the migrant is better.
+	 */
+	void receive() {
+		if(inbox.isEmpty()) return;
+		List<Pattern> migrants = new ArrayList<>();
+		Pattern m;
+		while((m = inbox.poll())!=null)
+			migrants.add(m);
+		migrants.sort(null);
+		Pattern[] current = individuals;
+		Pattern[] next = getSpare();
+		for(int i=0; i<next.length; i++)
+			next[i].set(current[i]);
+		int worst = next.length-1;
+		for(Pattern migrant : migrants) {
+			if(worst<0 || migrant.compareTo(next[worst])>=0) break;
+			next[worst--].set(migrant);
+		}
+		sort(next);
+		swap(next);
+	}
+
+	@Override
+	public int compareTo(Species o) {
+		return getBest().compareTo(o.getBest());
+	}
+
+}
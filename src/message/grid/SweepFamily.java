@@ -0,0 +1,118 @@
+package message.grid;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A family made of every combination of placements of several images, each
+ * image allowed anywhere within its own range of offsets. The same family
+ * could be built as a MessageFamily of every combination, but since the images
+ * never overlap, each image's error depends only on its own offset. So each
+ * image is scored at each of its offsets, and the minimums added, making the
+ * cost the sum rather than the product of the number of offsets.
+ * 
+ * Ties are broken as if the combinations were added with the first image's
+ * offset outermost, and offsets within an image ordered by y then x.
+ *
+ * @author kg249
+ */
+public class SweepFamily extends MessageFamily {
+
+	private final List<Placement> placements = new ArrayList<>();
+
+	public SweepFamily() {}
+
+	/**
+	 * @see #addImage(TriImage, int, int, int, int)
+	 */
+	public SweepFamily addImage(BufferedImage img, int minX, int maxX, int minY, int maxY) {
+		return addImage(TriImage.of(img), minX, maxX, minY, maxY);
+	}
+
+	/**
+	 * Adds an image which may be placed with its top left corner anywhere from
+	 * (minX, minY) to (maxX, maxY) inclusive.
+	 * @throws IllegalArgumentException if the image could overlap one already
+	 * added
+	 */
+	public SweepFamily addImage(TriImage img, int minX, int maxX, int minY, int maxY) {
+		if(minX>maxX || minY>maxY)
+			throw new IllegalArgumentException("Empty offset range");
+		if(!canAdd(img, minX, maxX, minY, maxY))
+			throw new IllegalArgumentException("Images in a SweepFamily must not overlap at any offset");
+		placements.add(new Placement(img, minX, maxX, minY, maxY));
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * @return whether the image, placed anywhere in the given range, could
+	 * never overlap any image already added
+	 */
+	public boolean canAdd(TriImage img, int minX, int maxX, int minY, int maxY) {
+		Placement p = new Placement(img, minX, maxX, minY, maxY);
+		for(Placement o : placements)
+			if(p.mayOverlap(o))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always, use addImage
+	 */
+	@Override
+	public MessageFamily add(Message e) {
+		throw new UnsupportedOperationException("SweepFamily messages are built from images, use addImage");
+	}
+
+	@Override
+	Group[] compile(int width, int height) {
+		Group[] groups = new Group[placements.size()];
+		for(int i=0; i<groups.length; i++)
+			groups[i] = new Group(placements.get(i).messages(), width, height);
+		return groups;
+	}
+
+	@Override
+	Message toMessage(int[] best) {
+		Message m = new Message();
+		for(int i=0; i<best.length; i++) {
+			Placement p = placements.get(i);
+			int w = p.maxX-p.minX+1;
+			m.addImage(p.minX + best[i]%w, p.minY + best[i]/w, p.img);
+		}
+		return m;
+	}
+
+	private static class Placement {
+
+		private final TriImage img;
+		private final int minX, maxX, minY, maxY;
+
+		Placement(TriImage img, int minX, int maxX, int minY, int maxY) {
+			this.img = img;
+			this.minX = minX;
+			this.maxX = maxX;
+			this.minY = minY;
+			this.maxY = maxY;
+		}
+
+		boolean mayOverlap(Placement o) {
+			return minX < o.maxX+o.img.getWidth() && o.minX < maxX+img.getWidth()
+					&& minY < o.maxY+o.img.getHeight() && o.minY < maxY+img.getHeight();
+		}
+
+		/**
+		 * @return the image at each offset, y major
+		 */
+		List<Message> messages() {
+			List<Message> messages = new ArrayList<>();
+			for(int y=minY; y<=maxY; y++)
+				for(int x=minX; x<=maxX; x++)
+					messages.add(new Message().addImage(x, y, img));
+			return messages;
+		}
+	}
+
+}
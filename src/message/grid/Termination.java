@@ -0,0 +1,79 @@
+package message.grid;
+
+/**
+ * When to stop a run: after a number of generations, after a wall-clock
+ * budget, once the best error reaches a target, or once the best error has not
+ * improved for a number of generations. Whichever comes first.
+ *
+ * @author kg249
+ */
+public class Termination {
+
+	private final int generations;
+	private final long budget; //ns
+	private final int target;
+	private final int stagnation;
+
+	private long start;
+	private int bestError = Integer.MAX_VALUE;
+	private int improved; //generation the best error last improved
+	private String reason;
+
+	/**
+	 * @param generations number of generations including the first, 0 for no
+	 * limit
+	 * @param seconds wall-clock budget from {@link #start}, 0 for none
+	 * @param target stop once the best error is at most this, -1 for never
+	 * @param stagnation stop once the best error hasn't improved for this many
+	 * generations, 0 for never
+	 */
+	public Termination(int generations, double seconds, int target, int stagnation) {
+		this.generations = generations;
+		this.budget = (long)(seconds*1e9);
+		this.target = target;
+		this.stagnation = stagnation;
+		start();
+	}
+
+	/**
+	 * Starts the clock for the time budget.
+	 */
+	public void start() {
+		start = System.nanoTime();
+	}
+
+	/**
+	 * @return the last generation to run, Integer.MAX_VALUE if unlimited
+	 */
+	public int getLastGeneration() {
+		return generations>0 ? generations-1 : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Checks the evolution's latest generation. Must be called after every
+	 * generation for stagnation to be detected.
+	 */
+	public boolean isDone(Evolution evolution) {
+		int g = evolution.getGeneration();
+		int error = evolution.getBest().getError();
+		if(error<bestError) {
+			bestError = error;
+			improved = g;
+		}
+		if(g>=getLastGeneration())
+			reason = "generation limit reached";
+		else if(budget>0 && System.nanoTime()-start>=budget)
+			reason = "time budget spent";
+		else if(target>=0 && error<=target)
+			reason = "target error reached";
+		else if(stagnation>0 && g-improved>=stagnation)
+			reason = "no improvement in "+stagnation+" generations";
+		return reason!=null;
+	}
+
+	/**
+	 * @return why isDone last returned true, or null if it hasn't
+	 */
+	public String getReason() { return reason; }
+
+}
@@ -0,0 +1,29 @@
+package message.grid;
+
+/**
+ * Picks size individuals uniformly at random and returns the best of them.
+ * Needs no preparation, and only relies on the population being sorted.
+ *
+ * @author kg249
+ */
+public class TournamentSelection implements Selection {
+
+	private final int size;
+
+	public TournamentSelection(int size) {
+		if(size<1)
+			throw new IllegalArgumentException("Tournament size must be at least 1");
+		this.size = size;
+	}
+
+	@Override
+	public Sampler prepare(Pattern[] patterns) {
+		return random -> {
+			int best = random.nextInt(patterns.length);
+			for(int i=1; i<size; i++)
+				best = Math.min(best, random.nextInt(patterns.length));
+			return patterns[best];
+		};
+	}
+
+}
@@ -0,0 +1,69 @@
+package message.grid;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A tri-colour image: white, black or transparent. Held as two bit masks packed
+ * row-major 64 pixels per word, so lookups never go through AWT.
+ *
+ * @author kg249
+ */
+public final class TriImage {
+
+	/** The colour of transparent pixels in source images. */
+	public static final int TRANSPARENT = 0xFF0000FF;
+	public static final int WHITE = 0xFFFFFFFF;
+
+	private final int width;
+	private final int height;
+	private final long[] opaque; //white or black pixels
+	private final long[] white; //white pixels
+
+	TriImage(int width, int height, long[] opaque, long[] white) {
+		int words = MessageMask.words(width, height);
+		if(opaque.length!=words || white.length!=words)
+			throw new IllegalArgumentException("Expected "+words+" words for a "+width+"x"+height+" image");
+		this.width = width;
+		this.height = height;
+		this.opaque = opaque;
+		this.white = white;
+	}
+
+	/**
+	 * Blue (0xFF0000FF) pixels are transparent, white pixels white, and all
+	 * other colours black.
+	 */
+	public static TriImage of(BufferedImage img) {
+		int width = img.getWidth(), height = img.getHeight();
+		int[] rgb = img.getRGB(0, 0, width, height, null, 0, width);
+		long[] opaque = new long[MessageMask.words(width, height)];
+		long[] white = new long[opaque.length];
+		for(int i=0; i<rgb.length; i++) {
+			if(rgb[i]!=TRANSPARENT)
+				opaque[i>>>6] |= 1L<<i;
+			if(rgb[i]==WHITE)
+				white[i>>>6] |= 1L<<i;
+		}
+		return new TriImage(width, height, opaque, white);
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	public boolean isOpaque(int x, int y) {
+		int i = y*width+x;
+		return (opaque[i>>>6] & 1L<<i) != 0;
+	}
+
+	public boolean isWhite(int x, int y) {
+		int i = y*width+x;
+		return (white[i>>>6] & 1L<<i) != 0;
+	}
+
+	/** Must not be modified. */
+	long[] opaqueWords() { return opaque; }
+
+	/** Must not be modified. */
+	long[] whiteWords() { return white; }
+
+}
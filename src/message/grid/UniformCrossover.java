@@ -0,0 +1,18 @@
+package message.grid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Each pixel comes from either parent with equal probability.
+ *
+ * @author kg249
+ */
+public class UniformCrossover implements Crossover {
+
+	@Override
+	public void cross(Pattern a, Pattern b, SplittableRandom random, Pattern child) {
+		child.set(a);
+		child.uniform(b, random);
+	}
+
+}
@@ -0,0 +1,447 @@
+package message.grid;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes cut and engrave layers as vector files, SVG or DXF, for a laser cutter
+ * to follow directly rather than tracing pixels itself.
+ *
+ * Cut cells are traced into the closed contours around each region, with each
+ * straight run of cell edges as one segment. Regions touching only at a corner
+ * get separate contours. Contours are cut in nearest-neighbour order, each
+ * entered at its corner nearest the head, to keep travel between them short.
+ * Engrave cells are merged into horizontal runs, one rectangle per run, written
+ * row by row in alternating directions.
+ *
+ * Files are streamed as they are produced. Engraving needs nothing but the
+ * current row, and tracing a byte per cell corner plus the contours
+ * themselves. Coordinates are in cells, scaled to millimetres by the cell size.
+ *
+ * @author kg249
+ */
+public class VectorExport {
+
+	/** File formats, named by their extension. */
+	public static final List<String> FORMATS = List.of("svg", "dxf");
+
+	private static final int E = 1, S = 2, W = 4, N = 8; //directions, clockwise from east
+	private static final int[] DX = {1, 0, -1, 0}, DY = {0, 1, 0, -1};
+	private static final int[] TURNS = {1, 0, 3}; //right, straight on, left
+
+	private final File dir;
+	private final double cell;
+	private final String[] formats;
+	private final List<Runnable> writes = new ArrayList<>();
+
+	/**
+	 * @param dir directory to write to, created if needed
+	 * @param cell size of a grid cell, in mm
+	 * @param formats any of {@link #FORMATS}. Each file is written in each.
+	 */
+	public VectorExport(File dir, double cell, String... formats) {
+		for(String f : formats)
+			if(!FORMATS.contains(f))
+				throw new IllegalArgumentException("Unknown vector format "+f);
+		this.dir = dir;
+		this.cell = cell;
+		this.formats = formats.clone();
+	}
+
+	/**
+	 * @param name file name within the directory, without extension
+	 * @param cells per cell, row-major, whether to cut it out. Must not be
+	 * modified until written.
+	 */
+	public VectorExport addCut(String name, int width, int height, boolean[] cells) {
+		writes.add(() -> {
+			Contours contours = Contours.trace(width, height, cells);
+			for(String format : formats)
+				write(name, format, width, height, true, sink -> contours.write(sink));
+		});
+		return this;
+	}
+
+	/**
+	 * @param name file name within the directory, without extension
+	 * @param cells per cell, row-major, whether to engrave it. Must not be
+	 * modified until written.
+	 */
+	public VectorExport addEngrave(String name, int width, int height, boolean[] cells) {
+		writes.add(() -> {
+			for(String format : formats)
+				write(name, format, width, height, false, sink -> engrave(width, height, cells, sink));
+		});
+		return this;
+	}
+
+	private interface Body {
+		void write(Sink sink) throws IOException;
+	}
+
+	private void write(String name, String format, int width, int height, boolean cut, Body body) {
+		File file = new File(dir, name+"."+format);
+		try(Writer out = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8), 1<<16);
+				Sink sink = format.equals("svg") ? new Svg(out, width, height, cell, cut) : new Dxf(out, height, cell, cut)) {
+			body.write(sink);
+		} catch(IOException ex) {
+			throw new UncheckedIOException(file+": "+ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * Traces and writes every file added, in parallel on the given executor.
+	 * @return completes once all are written, or exceptionally with the first
+	 * failure
+	 */
+	public CompletableFuture<Void> writeAsync(Executor executor) {
+		dir.mkdirs();
+		return CompletableFuture.allOf(writes.stream()
+				.map(w -> CompletableFuture.runAsync(w, executor))
+				.toArray(CompletableFuture<?>[]::new));
+	}
+
+	/**
+	 * Writes every file added, in parallel, returning once all are written.
+	 */
+	public void write() throws IOException {
+		try {
+			writeAsync(ForkJoinPool.commonPool()).join();
+		} catch (CompletionException ex) {
+			if(ex.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException)ex.getCause()).getCause();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Writes each horizontal run of cells as a rectangle, even rows left to
+	 * right and odd rows back, counting only rows with any runs.
+	 */
+	static void engrave(int width, int height, boolean[] cells, Sink sink) throws IOException {
+		int[] xy = new int[8];
+		int[] runs = new int[width+1]; //start and end of each run in the row
+		boolean forward = true;
+		for(int y=0; y<height; y++) {
+			int row = y*width, n = 0;
+			for(int x=0; x<width; x++)
+				if(cells[row+x] && (x==0 || !cells[row+x-1])) {
+					runs[n++] = x;
+					while(x<width && cells[row+x]) x++;
+					runs[n++] = x;
+				}
+			for(int i=0; i<n; i+=2) {
+				int r = forward ? i : n-2-i;
+				xy[0] = runs[r];   xy[1] = y;
+				xy[2] = runs[r+1]; xy[3] = y;
+				xy[4] = runs[r+1]; xy[5] = y+1;
+				xy[6] = runs[r];   xy[7] = y+1;
+				sink.polygon(xy, 0, 4);
+			}
+			if(n>0)
+				forward = !forward;
+		}
+	}
+
+	/**
+	 * The closed contours around regions of cells, as the x,y of their corners.
+	 * Outlines run clockwise on screen, and those of holes anticlockwise.
+	 */
+	static final class Contours {
+
+		final int width, height;
+		int[] xy = new int[64]; //corners of every contour, one after another
+		int[] start = new int[16]; //per contour, its first corner; one more, the end
+		int size; //ints of xy used
+		int count;
+
+		private Contours(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * Follows the cell edges between regions and the rest, keeping regions
+		 * on the right. At a corner two regions touch diagonally, turns right,
+		 * so that each is traced on its own.
+		 */
+		static Contours trace(int width, int height, boolean[] cells) {
+			if(cells.length!=width*height)
+				throw new IllegalArgumentException("Expected "+width*height+" cells");
+			int vw = width+1;
+			byte[] out = new byte[vw*(height+1)]; //per cell corner, edges leaving it
+			for(int y=0; y<height; y++)
+				for(int x=0; x<width; x++) {
+					if(!cells[y*width + x]) continue;
+					if(y==0 || !cells[(y-1)*width + x]) out[y*vw + x] |= E;
+					if(x==width-1 || !cells[y*width + x+1]) out[y*vw + x+1] |= S;
+					if(y==height-1 || !cells[(y+1)*width + x]) out[(y+1)*vw + x+1] |= W;
+					if(x==0 || !cells[y*width + x-1]) out[(y+1)*vw + x] |= N;
+				}
+			Contours c = new Contours(width, height);
+			//The first corner left in raster order is a contour's top left, which
+			//it leaves east, or south around a hole
+			for(int v=0; v<out.length; v++)
+				while(out[v]!=0)
+					c.follow(out, vw, v);
+			c.start[c.count] = c.size;
+			return c;
+		}
+
+		private void follow(byte[] out, int vw, int from) {
+			if(count+1>=start.length)
+				start = Arrays.copyOf(start, start.length*2);
+			start[count++] = size;
+			int v = from, d = Integer.numberOfTrailingZeros(out[v]);
+			out[v] &= ~(1<<d);
+			add(v%vw, v/vw);
+			while(true) {
+				v += DY[d]*vw + DX[d];
+				if(v==from)
+					return;
+				int next = -1;
+				for(int turn : TURNS) {
+					int t = (d+turn)&3;
+					if((out[v] & 1<<t)!=0) {
+						next = t;
+						break;
+					}
+				}
+				if(next<0)
+					throw new IllegalStateException("Open contour at "+v%vw+","+v/vw);
+				out[v] &= ~(1<<next);
+				if(next!=d)
+					add(v%vw, v/vw);
+				d = next;
+			}
+		}
+
+		private void add(int x, int y) {
+			if(size+2>xy.length)
+				xy = Arrays.copyOf(xy, xy.length*2);
+			xy[size++] = x;
+			xy[size++] = y;
+		}
+
+		/**
+		 * Writes every contour, in the order {@link #order} gives, each
+		 * starting from the corner it gives.
+		 */
+		void write(Sink sink) throws IOException {
+			int[] rotated = new int[0];
+			int[] order = order();
+			for(int i=0; i<count; i++) {
+				int c = order[2*i], first = order[2*i+1];
+				int from = start[c], n = (start[c+1]-from)/2;
+				if(rotated.length<2*n)
+					rotated = new int[2*n];
+				int split = first-from;
+				System.arraycopy(xy, first, rotated, 0, 2*n-split);
+				System.arraycopy(xy, from, rotated, 2*n-split, split);
+				sink.polygon(rotated, 0, n);
+			}
+		}
+
+		/**
+		 * Greedy nearest neighbour from the origin: after each contour, the
+		 * next is the one with a corner nearest where the last was entered,
+		 * and so where the head is once it has been cut. Corners are bucketed
+		 * on a grid searched in growing rings, and removed as their contour is
+		 * used.
+		 * @return per contour in order, its index then the xy index of the
+		 * corner to start at
+		 */
+		int[] order() {
+			int corners = size/2;
+			int bucket = Math.max(1, (int)Math.sqrt((double)width*height / Math.max(1, count)));
+			int bw = width/bucket+1, bh = height/bucket+1;
+			int[] first = new int[bw*bh+1], live = new int[bw*bh];
+			int[] contour = new int[corners];
+			for(int c=0; c<count; c++)
+				for(int k=start[c]/2; k<start[c+1]/2; k++) {
+					contour[k] = c;
+					live[bucketOf(k, bucket, bw)]++;
+				}
+			for(int b=0; b<live.length; b++)
+				first[b+1] = first[b] + live[b];
+			int[] members = new int[corners], position = new int[corners];
+			int[] fill = Arrays.copyOf(first, live.length);
+			for(int k=0; k<corners; k++) {
+				int b = bucketOf(k, bucket, bw);
+				position[k] = fill[b];
+				members[fill[b]++] = k;
+			}
+
+			int[] order = new int[2*count];
+			int hx = 0, hy = 0;
+			for(int i=0; i<count; i++) {
+				int bx = hx/bucket, by = hy/bucket;
+				long bestDist = Long.MAX_VALUE;
+				int best = -1;
+				for(int r=0; ; r++) {
+					for(int y=Math.max(0, by-r); y<=Math.min(bh-1, by+r); y++) {
+						boolean edge = y==by-r || y==by+r;
+						for(int x=bx-r; x<=bx+r; x += edge || r==0 ? 1 : 2*r) {
+							if(x<0 || x>=bw) continue;
+							int b = y*bw + x;
+							for(int m=first[b]; m<first[b]+live[b]; m++) {
+								int k = members[m];
+								long dx = xy[2*k]-hx, dy = xy[2*k+1]-hy;
+								long dist = dx*dx + dy*dy;
+								if(dist<bestDist || (dist==bestDist && k<best)) {
+									bestDist = dist;
+									best = k;
+								}
+							}
+						}
+					}
+					//Buckets further out are all at least r buckets away
+					long reach = (long)r*bucket;
+					if(best>=0 && bestDist<=reach*reach) break;
+					if(r>Math.max(bw, bh)) break;
+				}
+				int c = contour[best];
+				order[2*i] = c;
+				order[2*i+1] = 2*best;
+				hx = xy[2*best];
+				hy = xy[2*best+1];
+				for(int k=start[c]/2; k<start[c+1]/2; k++) { //swap out of the live part of its bucket
+					int b = bucketOf(k, bucket, bw);
+					int last = first[b] + --live[b];
+					int moved = members[last];
+					members[position[k]] = moved;
+					position[moved] = position[k];
+					members[last] = k;
+					position[k] = last;
+				}
+			}
+			return order;
+		}
+
+		private int bucketOf(int k, int bucket, int bw) {
+			return xy[2*k+1]/bucket*bw + xy[2*k]/bucket;
+		}
+	}
+
+	/**
+	 * Where closed polygons are written.
+	 */
+	interface Sink extends Closeable {
+		/**
+		 * @param xy x,y pairs of n corners, in cells from the top left
+		 */
+		void polygon(int[] xy, int from, int n) throws IOException;
+	}
+
+	/**
+	 * An SVG in cells through its view box, with a width and height in mm.
+	 * Axis-aligned edges keep paths to H and V commands.
+	 */
+	private static final class Svg implements Sink {
+		private final Writer out;
+
+		Svg(Writer out, int width, int height, double cell, boolean cut) throws IOException {
+			this.out = out;
+			out.write(String.format(Locale.ROOT, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n"
+					+ "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%smm\" height=\"%smm\" viewBox=\"0 0 %d %d\">%n",
+					number(width*cell), number(height*cell), width, height));
+			out.write(cut
+					? "<g id=\"cut\" fill=\"none\" stroke=\"#FF0000\" stroke-width=\"0.01\">\n"
+					: "<g id=\"engrave\" fill=\"#000000\" stroke=\"none\">\n");
+		}
+
+		@Override
+		public void polygon(int[] xy, int from, int n) throws IOException {
+			out.write("<path d=\"M");
+			out.write(Integer.toString(xy[from]));
+			out.write(' ');
+			out.write(Integer.toString(xy[from+1]));
+			for(int i=1; i<n; i++) {
+				int p = from+2*i;
+				boolean horizontal = xy[p+1]==xy[p-1];
+				out.write(horizontal ? 'H' : 'V');
+				out.write(Integer.toString(horizontal ? xy[p] : xy[p+1]));
+			}
+			out.write("Z\"/>\n");
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.write("</g>\n</svg>\n");
+		}
+	}
+
+	/**
+	 * An R12 DXF, the most widely read, of closed polylines in mm on a CUT or
+	 * ENGRAVE layer. R12 has no units header, so importers must be set to mm.
+	 * DXF's y axis points up, so rows are flipped.
+	 */
+	private static final class Dxf implements Sink {
+		private static final String HEADER = "0\nSECTION\n2\nHEADER\n9\n$ACADVER\n1\nAC1009\n0\nENDSEC\n"
+				+ "0\nSECTION\n2\nTABLES\n"
+				+ "0\nTABLE\n2\nLTYPE\n70\n1\n0\nLTYPE\n2\nCONTINUOUS\n70\n0\n3\nSolid line\n72\n65\n73\n0\n40\n0.0\n0\nENDTAB\n"
+				+ "0\nTABLE\n2\nLAYER\n70\n2\n"
+				+ "0\nLAYER\n2\nCUT\n70\n0\n62\n1\n6\nCONTINUOUS\n" //red
+				+ "0\nLAYER\n2\nENGRAVE\n70\n0\n62\n5\n6\nCONTINUOUS\n" //blue
+				+ "0\nENDTAB\n0\nENDSEC\n"
+				+ "0\nSECTION\n2\nENTITIES\n";
+
+		private final Writer out;
+		private final int height;
+		private final double cell;
+		private final String layer;
+
+		Dxf(Writer out, int height, double cell, boolean cut) throws IOException {
+			this.out = out;
+			this.height = height;
+			this.cell = cell;
+			layer = cut ? "CUT" : "ENGRAVE";
+			out.write(HEADER);
+		}
+
+		@Override
+		public void polygon(int[] xy, int from, int n) throws IOException {
+			out.write("0\nPOLYLINE\n8\n"+layer+"\n66\n1\n10\n0\n20\n0\n30\n0\n70\n1\n");
+			for(int i=0; i<n; i++) {
+				int p = from+2*i;
+				out.write("0\nVERTEX\n8\n"+layer+"\n10\n");
+				out.write(number(xy[p]*cell));
+				out.write("\n20\n");
+				out.write(number((height-xy[p+1])*cell));
+				out.write('\n');
+			}
+			out.write("0\nSEQEND\n8\n"+layer+"\n");
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.write("0\nENDSEC\n0\nEOF\n");
+		}
+	}
+
+	/**
+	 * @return x without a trailing .0 or exponent, to 4 decimal places
+	 */
+	private static String number(double x) {
+		if(x==(long)x)
+			return Long.toString((long)x);
+		String s = String.format(Locale.ROOT, "%.4f", x);
+		s = s.replaceAll("0+$", "");
+		return s.endsWith(".") ? s.substring(0, s.length()-1) : s;
+	}
+
+}
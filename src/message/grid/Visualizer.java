@@ -0,0 +1,102 @@
+package message.grid;
+
+import java.awt.Color;
+import java.awt.GridLayout;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.ImageIcon;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows the best pattern so far and its best message from each family. The
+ * compute thread only takes a copy of the best pattern; all rendering is done
+ * on the EDT, at most fps times a second. Generations finishing faster than
+ * that are skipped.
+ *
+ * @author kg249
+ */
+public class Visualizer implements EvolutionListener {
+
+	private final String[] names;
+	private final MessageFamily[] families;
+	private final long interval; //ns between renders
+
+	private final AtomicReference<Pattern> latest = new AtomicReference<>();
+	private final AtomicBoolean pending = new AtomicBoolean();
+	private volatile long lastRender;
+	private final AtomicLong renderTime = new AtomicLong();
+
+	//EDT only
+	private JFrame frame;
+	private JLabel baseLbl;
+	private JLabel[] familyLbls;
+
+	public Visualizer(String[] names, MessageFamily[] families, int fps) {
+		this.names = names;
+		this.families = families;
+		interval = 1_000_000_000L / Math.max(1, fps);
+		lastRender = System.nanoTime() - interval;
+	}
+
+	@Override
+	public void generationComplete(Evolution evolution) {
+		latest.set(new Pattern(evolution.getBest()));
+		if(System.nanoTime() - lastRender >= interval)
+			flush();
+	}
+
+	/**
+	 * Renders the latest snapshot as soon as possible, regardless of the frame
+	 * rate.
+	 */
+	public void flush() {
+		if(pending.compareAndSet(false, true)) {
+			lastRender = System.nanoTime();
+			SwingUtilities.invokeLater(this::render);
+		}
+	}
+
+	/**
+	 * @return total nanoseconds spent rendering on the EDT
+	 */
+	public long getRenderTime() { return renderTime.get(); }
+
+	private void render() {
+		pending.set(false);
+		Pattern p = latest.get();
+		if(p==null) return;
+		long start = System.nanoTime();
+		boolean created = frame==null;
+		if(created) createFrame();
+		baseLbl.setIcon(new ImageIcon(ImageExport.scaled(p.toImage(), ImageExport.SCALE)));
+		for(int f=0; f<families.length; f++)
+			familyLbls[f].setIcon(new ImageIcon(ImageExport.scaled(families[f].getBestMessage(p).toImage(p), ImageExport.SCALE)));
+		if(created) {
+			frame.pack();
+			frame.setLocationRelativeTo(null);
+			frame.setVisible(true);
+		}
+		renderTime.addAndGet(System.nanoTime()-start);
+	}
+
+	private void createFrame() {
+		frame = new JFrame("Output");
+		frame.setLayout(new GridLayout(families.length+1, 2, 5, 5));
+		baseLbl = new JLabel();
+		frame.add(baseLbl);
+		frame.add(new JLabel("Base"));
+		familyLbls = new JLabel[families.length];
+		for(int f=0; f<families.length; f++) {
+			familyLbls[f] = new JLabel();
+			familyLbls[f].setBackground(Color.RED);
+			familyLbls[f].setOpaque(true);
+			frame.add(familyLbls[f]);
+			frame.add(new JLabel(names[f]));
+		}
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+	}
+
+}